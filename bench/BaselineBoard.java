@@ -0,0 +1,64 @@
+/**
+ * Class: BaselineBoard
+ * Author: Matthew Dailey
+ * 
+ * The fields of the Board ants sent as Gson JSON before the binary format,
+ * with the same names and layout, so Gson writes the same message the old
+ * ants sent. The old board wrapped positions mod 20 into one 20x20 array
+ * of bytes, so its message is the same size on every map.
+ * 
+ * Each square of the array is the hive, a wall, unknown or the amount of
+ * food on it.
+ */
+
+import ants.*;
+
+public class BaselineBoard {
+	final private int WIDTH = 20; //Size of the board.
+	final private byte HIVE = -1; //Mark board index as hive
+	final private byte WALL = -2; //Mark board index as wall
+	final private byte UNKWOWN = -3; //Mark board index as unexplored
+	
+	private byte[][] board; //Map the game
+	// set search order so all directional searches are conducted in order.
+	public final Direction[] searchOrder = {Direction.NORTH, Direction.EAST,
+			Direction.SOUTH, Direction.WEST};
+	private int currX; // The ant's current relative east-west position.
+	private int currY; // The ant's current relative north-south position.
+	private int targetX; // The ant's target east-west position.
+	private int targetY; // The ant's target north-south position.
+	
+	/**
+	 * BaselineBoard
+	 * 
+	 * The old board of an ant that has seen every square of the map, at the
+	 * same position as the board.
+	 * 
+	 * @param world : the map seen.
+	 * @param seen : board that has seen the whole map.
+	 */
+	public BaselineBoard(GameMap world, Board seen){
+		this.board = new byte[WIDTH][WIDTH];
+		for( int y = 0; y < WIDTH; y++ ){
+			for( int x = 0; x < WIDTH; x++ )
+				this.board[y][x] = UNKWOWN;
+		}
+		// Later squares land on earlier ones that are 20 apart, as they did.
+		for( int y = 0; y < world.height(); y++ ){
+			for( int x = 0; x < world.width(); x++ ){
+				byte val = !world.isTravelable(x, y) ? WALL : (byte)world.food(x, y);
+				this.board[convertToIndex(y - world.hiveY())][convertToIndex(x - world.hiveX())] = val;
+			}
+		}
+		this.board[0][0] = HIVE;
+		this.currX = seen.x();
+		this.currY = seen.y();
+		this.targetX = seen.targetX();
+		this.targetY = seen.targetY();
+	}
+	
+	// Convert position relative to hive to index into the board array.
+	private int convertToIndex( int rel ){
+		return Math.floorMod(rel, WIDTH);
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * Class: BoardWorkload
+ * Author: Matthew Dailey
+ * 
+ * The Board calls benchmarks.BoardBenchmark times, made here in the default
+ * package where the solution's classes are, see benchmarks.Workload.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+
+import ants.*;
+import benchmarks.Workload;
+import com.google.gson.Gson;
+
+public class BoardWorkload implements Workload {
+	private GameMap world;			// The map explored.
+	private Board board;			// Board that has seen the whole map.
+	private ByteBuffer snapshot;	// The board as a message, to put it back.
+	private int[] targetX;			// Food picked by assignFood, east-west.
+	private int[] targetY;			// Food picked by assignFood, north-south.
+	private Board routes;			// Explored board with a target, for routes.
+	private Path path;				// Reused for every route.
+	private Board scratch;			// Board messages are merged or read into.
+	private ByteBuffer blank;		// A blank board as a message.
+	private ByteBuffer out;			// Reused buffer the board is encoded into.
+	private Gson gson;
+	private BaselineBoard baseline;	// The board as the ants sent it before the binary format.
+	private String json;			// The baseline board as Gson JSON.
+	
+	public void explore(int size, double walls, double food){
+		this.world = new GameMap(size, size, walls, food, 42);
+		this.board = explore(this.world);
+		this.snapshot = ByteBuffer.allocate(this.board.encodedSize());
+		this.board.write(this.snapshot);
+		this.snapshot.flip();
+		this.targetX = new int[0];
+		this.targetY = new int[0];
+		this.path = new Path();
+		
+		this.scratch = new Board();
+		this.out = ByteBuffer.allocate(this.board.encodedSize());
+		Board empty = new Board();
+		this.blank = ByteBuffer.allocate(empty.encodedSize());
+		empty.write(this.blank);
+		this.blank.flip();
+		this.gson = new Gson();
+		this.baseline = new BaselineBoard(this.world, this.board);
+		this.json = this.gson.toJson(this.baseline);
+	}
+	
+	public void restore(){
+		this.board.read(this.snapshot.duplicate());
+	}
+	
+	public void plan(String planner){
+		// A board of its own since the planner and cache change.
+		this.routes = explore(this.world);
+		// A square next to the hive, which is not the hive so the route is
+		// searched rather than read off the hive field.
+		for( Direction d : this.routes.searchOrder ){
+			if( this.world.isTravelable(this.world.hiveX() + dx(d), this.world.hiveY() + dy(d)) ){
+				this.routes.setTarget(dx(d), dy(d));
+				break;
+			}
+		}
+		this.routes.pathCache().setCapacity(0);
+		this.routes.setPlanner(Board.Planner.valueOf(planner));
+		// The first hierarchical route builds the clusters.
+		this.routes.RouteToTarget(this.path);
+	}
+	
+	public void clear(){
+		this.scratch.read(this.blank.duplicate());
+	}
+	
+	public Object computeDistances(){
+		return this.board.computeDistances(0, 0);
+	}
+	
+	public Object routeToHive(){
+		this.routes.RouteToHive(this.path);
+		return this.path;
+	}
+	
+	public Object routeToTarget(){
+		this.routes.RouteToTarget(this.path);
+		return this.path;
+	}
+	
+	public int suggestFood(){
+		this.board.suggestFood();
+		return this.board.version();
+	}
+	
+	public int assignFood(int gatherers){
+		if( this.targetX.length < gatherers ){
+			this.targetX = new int[gatherers];
+			this.targetY = new int[gatherers];
+		}
+		return this.board.assignFood(gatherers, this.targetX, this.targetY);
+	}
+	
+	public int assignFoodParallel(int gatherers){
+		this.board.setPool(ForkJoinPool.commonPool());
+		int found = assignFood(gatherers);
+		this.board.setPool(null);
+		return found;
+	}
+	
+	public int suggestScout(){
+		this.board.suggestScout();
+		return this.board.version();
+	}
+	
+	public Object combineBoardsEmpty(){
+		this.scratch.combineBoards(this.board);
+		return this.scratch;
+	}
+	
+	public Object combineBoardsKnown(){
+		this.board.combineBoards(this.board);
+		return this.board;
+	}
+	
+	public Object write(){
+		this.out.clear();
+		this.board.write(this.out);
+		return this.out;
+	}
+	
+	public Object read(){
+		this.scratch.read(this.snapshot.duplicate());
+		return this.scratch;
+	}
+	
+	public int binaryBytes(){
+		return this.snapshot.remaining();
+	}
+	
+	public int gsonBytes(){
+		return this.json.getBytes().length;
+	}
+	
+	public Object gsonToJson(){
+		return this.gson.toJson(this.baseline).getBytes();
+	}
+	
+	public Object gsonFromJson(){
+		return this.gson.fromJson(this.json, BaselineBoard.class);
+	}
+	
+	/**
+	 * explore
+	 * 
+	 * @return a board that has seen every square reachable from the hive,
+	 * left at the square furthest from the hive so routes are long.
+	 */
+	static Board explore(GameMap world){
+		Board board = new Board();
+		int width = world.width();
+		boolean[] visited = new boolean[width * world.height()];
+		GameMap.View view = world.new View(world.hiveX(), world.hiveY());
+		
+		// Depth first walk of the map, backtracking with the moves made so far.
+		// The move into each square when it was first reached is kept, so the
+		// way to the deepest square can be read back from it.
+		ArrayDeque<Direction> moves = new ArrayDeque<Direction>();
+		Direction[] into = new Direction[visited.length];
+		int deepest = world.hiveY() * width + world.hiveX();
+		int depth = 0;
+		int x = world.hiveX();
+		int y = world.hiveY();
+		visited[y * width + x] = true;
+		board.checkSurroundings(view);
+		while( true ){
+			Direction next = null;
+			for( Direction d : board.searchOrder ){
+				int nx = x + dx(d);
+				int ny = y + dy(d);
+				if( world.isTravelable(nx, ny) && !visited[ny * width + nx] ){
+					next = d;
+					break;
+				}
+			}
+			if( next != null ){
+				moves.push(next);
+			} else if( !moves.isEmpty() ){
+				next = board.oppositeDirection(moves.pop());
+			} else {
+				break;
+			}
+			board.updatePosition(next);
+			x += dx(next);
+			y += dy(next);
+			if( !visited[y * width + x] ){
+				visited[y * width + x] = true;
+				into[y * width + x] = next;
+				if( moves.size() > depth ){
+					depth = moves.size();
+					deepest = y * width + x;
+				}
+			}
+			view.moveTo(x, y);
+			board.checkSurroundings(view);
+		}
+		
+		// Walk from the hive to the deepest square reached.
+		Direction[] way = new Direction[depth];
+		for( int i = depth - 1, square = deepest; i >= 0; i-- ){
+			way[i] = into[square];
+			square -= dy(way[i]) * width + dx(way[i]);
+		}
+		for( Direction d : way )
+			board.updatePosition(d);
+		return board;
+	}
+	
+	static int dx(Direction d){
+		return d == Direction.EAST ? 1 : d == Direction.WEST ? -1 : 0;
+	}
+	
+	static int dy(Direction d){
+		return d == Direction.SOUTH ? 1 : d == Direction.NORTH ? -1 : 0;
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * Class: BoardBenchmark
+ * Author: Matthew Dailey
+ * 
+ * JMH benchmarks of the Board methods ants call every turn, so changes to
+ * the searches, merging and messages can be measured. See pom.xml to run
+ * them, every benchmark is reported in throughput and average time with
+ * the gc profiler's bytes allocated per call. The calls themselves are
+ * made by BoardWorkload, see Workload.
+ * 
+ * For each map size, wall density and food density a map is generated and
+ * explored completely by one board, which is left at the square furthest
+ * from the hive so routes are long.
+ * 
+ * Methods that change the board are run in batches of BATCH calls with the
+ * board put back before each batch, outside of the timing.
+ * 
+ * Routes to a target are timed with each planner from the far end of the
+ * map back to a square next to the hive, against computeDistances which
+ * measures the whole board. The route cache is turned off for these so
+ * every call is a search.
+ * 
+ * Messages are timed in the compact binary format and in the Gson format
+ * it replaced. The Gson messages are of the board as it was before the
+ * binary format, see BaselineBoard, and the bytes of a message in each
+ * format are printed when the map is explored.
+ */
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+	static final int BATCH = 64; // Calls between putting the board back.
+	static final int GATHERERS = 8; // Gatherers handed food by each assignFood.
+	
+	/**
+	 * A completely explored map, shared by every benchmark of a trial.
+	 */
+	@State(Scope.Benchmark)
+	public static class Explored {
+		@Param({"20", "64", "256", "1024"})
+		public int size;		// Width and height of the map.
+		@Param({"0.2"})
+		public double walls;	// Chance of a square being a wall.
+		@Param({"0.05"})
+		public double food;		// Chance of an open square having food.
+		
+		Workload work;
+		
+		@Setup(Level.Trial)
+		public void explore(){
+			this.work = Workload.load();
+			this.work.explore(this.size, this.walls, this.food);
+			System.out.println("message bytes: binary " + this.work.binaryBytes()
+					+ ", baseline gson " + this.work.gsonBytes());
+		}
+	}
+	
+	/**
+	 * The explored board put back before every call, for the benchmarks
+	 * that change it.
+	 */
+	@State(Scope.Thread)
+	public static class Fresh {
+		Workload work;
+		
+		@Setup(Level.Invocation)
+		public void restore(Explored explored){
+			this.work = explored.work;
+			this.work.restore();
+		}
+	}
+	
+	/**
+	 * The explored board with a target next to the hive, for routes found
+	 * by each planner with the route cache off.
+	 */
+	@State(Scope.Thread)
+	public static class Routes {
+		@Param({"ASTAR", "JUMP_POINTS", "HIERARCHICAL"})
+		public String planner;
+		
+		Workload work;
+		
+		@Setup(Level.Trial)
+		public void plan(Explored explored){
+			this.work = explored.work;
+			this.work.plan(this.planner);
+		}
+	}
+	
+	/**
+	 * A blank board put back before every call, to merge the explored one into.
+	 */
+	@State(Scope.Thread)
+	public static class Blank {
+		Workload work;
+		
+		@Setup(Level.Invocation)
+		public void clear(Explored explored){
+			this.work = explored.work;
+			this.work.clear();
+		}
+	}
+	
+	@Benchmark
+	public Object computeDistances(Explored s){
+		return s.work.computeDistances();
+	}
+	
+	@Benchmark
+	public Object routeToHive(Routes s){
+		return s.work.routeToHive();
+	}
+	
+	@Benchmark
+	public Object routeToTarget(Routes s){
+		return s.work.routeToTarget();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int suggestFood(Fresh s){
+		int version = 0;
+		for( int i = 0; i < BATCH; i++ )
+			version += s.work.suggestFood();
+		return version;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int assignFood(Fresh s){
+		int found = 0;
+		for( int i = 0; i < BATCH; i++ )
+			found += s.work.assignFood(GATHERERS);
+		return found;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int assignFoodParallel(Fresh s){
+		int found = 0;
+		for( int i = 0; i < BATCH; i++ )
+			found += s.work.assignFoodParallel(GATHERERS);
+		return found;
+	}
+	
+	@Benchmark
+	public int suggestScout(Explored s){
+		return s.work.suggestScout();
+	}
+	
+	@Benchmark
+	public Object combineBoardsEmpty(Blank s){
+		return s.work.combineBoardsEmpty();
+	}
+	
+	@Benchmark
+	public Object combineBoardsKnown(Explored s){
+		return s.work.combineBoardsKnown();
+	}
+	
+	@Benchmark
+	public Object write(Explored s){
+		return s.work.write();
+	}
+	
+	@Benchmark
+	public Object read(Explored s){
+		return s.work.read();
+	}
+	
+	@Benchmark
+	public Object gsonToJson(Explored s){
+		return s.work.gsonToJson();
+	}
+	
+	@Benchmark
+	public Object gsonFromJson(Explored s){
+		return s.work.gsonFromJson();
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Class: Workload
+ * Author: Matthew Dailey
+ * 
+ * The Board calls BoardBenchmark times. JMH will not generate benchmarks
+ * for a class in the default package and the solution's classes are all in
+ * it, where no named package can see them, so the calls are made by
+ * BoardWorkload in the default package through this interface, and it is
+ * loaded by name.
+ * 
+ * Each call returns what it made so JMH can keep it from being optimized
+ * away.
+ */
+
+package benchmarks;
+
+public interface Workload {
+	/**
+	 * load
+	 * 
+	 * @return a new BoardWorkload.
+	 */
+	static Workload load(){
+		try {
+			return Class.forName("BoardWorkload").asSubclass(Workload.class)
+					.getDeclaredConstructor().newInstance();
+		} catch( ReflectiveOperationException e ){
+			throw new IllegalStateException("BoardWorkload is not on the classpath", e);
+		}
+	}
+	
+	/**
+	 * explore
+	 * 
+	 * Generate a map and explore it completely with one board, left at the
+	 * square furthest from the hive so routes are long.
+	 * 
+	 * @param size : width and height of the map.
+	 * @param walls : chance of a square being a wall.
+	 * @param food : chance of an open square having food.
+	 */
+	void explore(int size, double walls, double food);
+	
+	// Put the explored board back as it was after exploring.
+	void restore();
+	
+	/**
+	 * plan
+	 * 
+	 * Set up a second explored board with a target next to the hive, the
+	 * planner named and the route cache off, for the route benchmarks.
+	 */
+	void plan(String planner);
+	
+	// Put the blank board messages are merged into back.
+	void clear();
+	
+	// Distances from the hive over the whole explored board.
+	Object computeDistances();
+	
+	// Route from the far end of the map to the hive.
+	Object routeToHive();
+	
+	// Route from the far end of the map to the target next to the hive.
+	Object routeToTarget();
+	
+	// Pick the nearest food, taking it off the board.
+	int suggestFood();
+	
+	// Pick food for gatherers at the hive, taking it off the board.
+	int assignFood(int gatherers);
+	
+	// assignFood with the food scan split over the common fork join pool.
+	int assignFoodParallel(int gatherers);
+	
+	// Pick the nearest unknown square.
+	int suggestScout();
+	
+	// Merge the explored board into the blank board.
+	Object combineBoardsEmpty();
+	
+	// Merge the explored board into itself, which changes nothing.
+	Object combineBoardsKnown();
+	
+	// Encode the explored board as a message.
+	Object write();
+	
+	// Decode the explored board's message into a scratch board.
+	Object read();
+	
+	// Bytes of the explored board as a message.
+	int binaryBytes();
+	
+	// Bytes of the baseline board's Gson message, see BaselineBoard.
+	int gsonBytes();
+	
+	// Encode the baseline board as the Gson message the binary one replaced.
+	Object gsonToJson();
+	
+	// Decode the baseline board from its Gson message.
+	Object gsonFromJson();
+}
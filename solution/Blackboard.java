@@ -0,0 +1,272 @@
+/**
+ * Class: Blackboard
+ * Author: Matthew Dailey
+ * 
+ * What a whole colony knows about the world in one place, for games played
+ * in one process such as the Simulator's. Ants normally only learn from the
+ * boards in each other's messages, so every ant merges every board it hears.
+ * With a blackboard each ant instead writes the squares it changed to the
+ * blackboard and reads back the squares the others changed, a few rows a
+ * turn, and messages carry no board.
+ * 
+ * Every square is one int cell: a known bit, a travellable bit and the
+ * food count. Cells are only changed by compare and set, and only the way
+ * combineBoards changes a board: an unknown cell takes what is written and a
+ * known travellable cell only takes a lower food count. Merges therefore
+ * never undo each other, so ants can read and write at the same time with
+ * no locks, in any order, and end up with the same squares.
+ * 
+ * Readers find what changed through version counters striped over the rows:
+ * a writer bumps the counter of a row's stripe after changing its cells and
+ * a reader that sees a counter move merges the rows of that stripe again.
+ * The counters are spread a cache line apart so writers to different
+ * stripes do not slow each other down. Each group of 32 stripes has a
+ * counter too, bumped after the stripe's, so a reader only looks at the
+ * stripes of the groups that changed. One more counter, bumped once by an
+ * ant whose writes changed anything, lets a reader skip looking at the
+ * groups at all on turns nothing changed.
+ * 
+ * The blackboard does not save memory. Ants keep their own Board and merge
+ * the blackboard into it rather than query the blackboard, since every
+ * search, the frontier and the route cache work on a board's rows of bits,
+ * so a colony still holds a board for each ant as well as the blackboard.
+ * What it saves is the messages: an ant merges each change once rather
+ * than once for every ant it hears.
+ * 
+ * Chunks are placed in a fixed table of slots found by hashing their
+ * coordinate, claimed by compare and set, so nothing ever moves and the
+ * table must be made large enough for the map. Squares in chunks that do
+ * not fit are not shared.
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+public class Blackboard {
+	private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(int[].class);
+	private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final int FOOD = 0xFF;			// Bits of the food count of a cell.
+	private static final int KNOWN = 1 << 8;		// Bit set if the square is known.
+	private static final int OPEN = 1 << 9;		// Bit set if the square is travellable.
+	private static final int CHUNK_SHIFT = Board.CHUNK_SHIFT;
+	private static final int CHUNK_WIDTH = 1 << CHUNK_SHIFT;
+	private static final int STRIPES = 1 << 10;		// Number of version counters.
+	private static final int GROUP_SHIFT = 5;		// Log2 of stripes in a group.
+	private static final int GROUPS = STRIPES >> GROUP_SHIFT; // Number of group counters.
+	private static final int PAD_SHIFT = 3;			// Log2 of longs between counters.
+	private static final int CHANGES = 1 << PAD_SHIFT; // Index of the counter of changes.
+	private static final long EMPTY = Long.MIN_VALUE; // Key of an unclaimed slot.
+	
+	private final long[] keys;		// Chunk coordinate of each slot, (cx << 32) | cy.
+	private final int[] cells;		// Cell of each square, (slot << 12) | (row << 6) | column.
+	private final long[] versions;	// Version of each stripe, a counter every 1 << PAD_SHIFT.
+	private final long[] groups;	// Version of each group of stripes, padded the same.
+	private final long[] changes;	// Syncs that changed anything, padded to a cache line.
+	
+	/**
+	 * Blackboard
+	 * 
+	 * @param chunks : most chunks of CHUNK_WIDTH squares a side the colony
+	 * will know. The table is made twice that, to a power of two.
+	 */
+	public Blackboard(int chunks){
+		int slots = Integer.highestOneBit(Math.max(1, chunks) * 2 - 1) << 1;
+		this.keys = new long[slots];
+		Arrays.fill(this.keys, EMPTY);
+		this.cells = new int[slots << (2 * CHUNK_SHIFT)];
+		this.versions = new long[STRIPES << PAD_SHIFT];
+		this.groups = new long[GROUPS << PAD_SHIFT];
+		this.changes = new long[2 << PAD_SHIFT];
+	}
+	
+	/**
+	 * forMap
+	 * 
+	 * @return a blackboard big enough for a map of the input size wherever
+	 * the hive is on it. Positions are relative to the hive so they run from
+	 * minus the size to the size.
+	 */
+	public static Blackboard forMap(int width, int height){
+		int across = (2 * width >> CHUNK_SHIFT) + 2;
+		int down = (2 * height >> CHUNK_SHIFT) + 2;
+		return new Blackboard(across * down);
+	}
+	
+	// Returns the key of a chunk coordinate.
+	private static long key(int cx, int cy){
+		return ((long)cx << 32) | (cy & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * slot
+	 * 
+	 * @return the slot of the chunk at the chunk coordinate, claiming a free
+	 * one if it has none and create is true, or -1 if it has none.
+	 */
+	private int slot(int cx, int cy, boolean create){
+		long key = key(cx, cy);
+		int mask = this.keys.length - 1;
+		int h = cx * 0x9E3779B1 + cy;
+		int i = (h ^ (h >>> 16)) & mask;
+		for( int probes = 0; probes < this.keys.length; ){
+			long k = (long)LONGS.getAcquire(this.keys, i);
+			if( k == key )
+				return i;
+			if( k == EMPTY ){
+				if( !create )
+					return -1;
+				// Another ant may claim the slot first, then look at it again.
+				if( LONGS.compareAndSet(this.keys, i, EMPTY, key) )
+					return i;
+				continue;
+			}
+			i = (i + 1) & mask;
+			probes++;
+		}
+		return -1;
+	}
+	
+	/**
+	 * merge
+	 * 
+	 * Write the known squares of a row of a board.
+	 * 
+	 * @param cx : east-west chunk coordinate of the row.
+	 * @param cy : north-south chunk coordinate of the row.
+	 * @param r : row within the chunk.
+	 * @param food : food count of each column, from the offset on.
+	 * @return true if any square changed.
+	 */
+	boolean merge(int cx, int cy, int r, long known, long travelable, byte[] food, int offset){
+		int slot = slot(cx, cy, true);
+		if( slot < 0 )
+			return false;
+		int row = (slot << CHUNK_SHIFT) | r;
+		boolean changed = false;
+		for( long bits = known; bits != 0; bits &= bits - 1 ){
+			int column = Long.numberOfTrailingZeros(bits);
+			int cell = KNOWN;
+			if( (travelable & (1L << column)) != 0 )
+				cell |= OPEN | (food[offset + column] & FOOD);
+			changed |= mergeCell((row << CHUNK_SHIFT) | column, cell);
+		}
+		// Readers that saw the old version merge the row again. The group is
+		// counted after the stripe, so a reader that sees it sees the stripe.
+		if( changed ){
+			int stripe = row & (STRIPES - 1);
+			LONGS.getAndAdd(this.versions, stripe << PAD_SHIFT, 1L);
+			LONGS.getAndAdd(this.groups, (stripe >> GROUP_SHIFT) << PAD_SHIFT, 1L);
+		}
+		return changed;
+	}
+	
+	// Merge a cell into the cell of a square, returning true if it changed.
+	private boolean mergeCell(int index, int cell){
+		while( true ){
+			int old = (int)CELLS.getVolatile(this.cells, index);
+			int next;
+			if( (old & KNOWN) == 0 )
+				next = cell;
+			else if( (old & cell & OPEN) != 0 && (cell & FOOD) < (old & FOOD) )
+				next = (old & ~FOOD) | (cell & FOOD);
+			else
+				return false;
+			if( CELLS.compareAndSet(this.cells, index, old, next) )
+				return true;
+		}
+	}
+	
+	/**
+	 * Reader
+	 * 
+	 * One ant's place on the blackboard: the versions of the stripes it has
+	 * merged and the version of its board it has written. Each ant needs its
+	 * own, and only the ant's thread uses it.
+	 */
+	public class Reader {
+		private final long[] seen;	// Version of each stripe last merged.
+		private final long[] seenGroups; // Version of each group of stripes last looked at.
+		private long seenChanges;	// Syncs that changed anything as of the last merge.
+		private final byte[] food;	// Food counts of the row being merged.
+		private int shared;			// Version of the board written so far.
+		
+		public Reader(){
+			this.seen = new long[STRIPES];
+			this.seenGroups = new long[GROUPS];
+			this.food = new byte[CHUNK_WIDTH];
+		}
+		
+		/**
+		 * sync
+		 * 
+		 * Write the rows of the board changed since the last sync to the
+		 * blackboard then merge the rows the other ants changed into the
+		 * board, if any ant has changed anything since the last sync.
+		 */
+		public void sync(Board board){
+			// Count the change after the stripes, so a reader that sees the
+			// count also sees theirs. If no other ant counted one since we
+			// last looked, the only rows changed are ours.
+			if( board.share(Blackboard.this, this.shared) ){
+				long before = (long)LONGS.getAndAdd(changes, CHANGES, 1L);
+				if( before == this.seenChanges )
+					this.seenChanges = before + 1;
+			}
+			long count = (long)LONGS.getAcquire(changes, CHANGES);
+			if( count == this.seenChanges ){
+				this.shared = board.version();
+				return;
+			}
+			this.seenChanges = count;
+			for( int g = 0; g < GROUPS; g++ ){
+				// Read the versions before the cells, so a write after them is
+				// merged again next time.
+				long group = (long)LONGS.getAcquire(groups, g << PAD_SHIFT);
+				if( group == this.seenGroups[g] )
+					continue;
+				this.seenGroups[g] = group;
+				for( int s = g << GROUP_SHIFT; s < (g + 1) << GROUP_SHIFT; s++ ){
+					long version = (long)LONGS.getAcquire(versions, s << PAD_SHIFT);
+					if( version == this.seen[s] )
+						continue;
+					this.seen[s] = version;
+					for( int row = s; row < keys.length << CHUNK_SHIFT; row += STRIPES )
+						pull(board, row);
+				}
+			}
+			// Rows the merge changed are already on the blackboard.
+			this.shared = board.version();
+		}
+		
+		// Merge a row of the blackboard into the board.
+		private void pull(Board board, int row){
+			long key = (long)LONGS.getAcquire(keys, row >>> CHUNK_SHIFT);
+			if( key == EMPTY )
+				return;
+			long known = 0;
+			long wall = 0;
+			long travelable = 0;
+			long stocked = 0;
+			int base = row << CHUNK_SHIFT;
+			for( int column = 0; column < CHUNK_WIDTH; column++ ){
+				int cell = (int)CELLS.getOpaque(cells, base + column);
+				if( (cell & KNOWN) == 0 )
+					continue;
+				long bit = 1L << column;
+				known |= bit;
+				if( (cell & OPEN) == 0 ){
+					wall |= bit;
+					continue;
+				}
+				travelable |= bit;
+				this.food[column] = (byte)(cell & FOOD);
+				if( (cell & FOOD) != 0 )
+					stocked |= bit;
+			}
+			if( known != 0 )
+				board.mergeShared((int)(key >> 32), (int)key, row & (CHUNK_WIDTH - 1), known, wall,
+						travelable, stocked, this.food);
+		}
+	}
+}
@@ -5,47 +5,161 @@
  * The Board represents an individual ants knowledge about the game and
  * is used to pass that information between ants.
  * 
- * The board is represented as a 2d array of bytes. Each square is marked
- * either as the hive, as a wall or as unknown. If it is known and not one
- * of those three, its value is the amount of food it has. The problem with
- * this representation is picking the correct square to put the hive from the 
- * beginning when ants do not know the whole map. To solve this I set the
- * hive at index [0][0] in the array and used modular arithmatic on the 
- * coordinates relative to the hive to find the correct index into the array.
- *
- * For example, the relative coordinate (1 west, 5 north) would be (-1,-5) = 
- * (19,19) mod 20 so would be at the index [19][19]. 
+ * The board is represented as flat layers indexed by square. The amount
+ * of food on each square is kept in a byte array and whether a square is
+ * known, a wall, travellable or has food is kept in bitboards of longs,
+ * one long per row, so neighbourhood questions like "which known squares
+ * touch an unknown square" can be answered a whole row at a time. The
+ * squares with food are also counted for each chunk and for the whole
+ * board, so whether there is any food left is answered without a search
+ * and scans for food skip the chunks with none.
  * 
- * Note: x coordinate refer to east-west where east is positive and y 
+ * The problem with this representation is that ants do not know how big
+ * the map is or where the hive is in it. To solve this all coordinates are
+ * relative to the hive and the board is split into square chunks of
+ * CHUNK_WIDTH x CHUNK_WIDTH squares. A chunk is only allocated once a square
+ * in it is seen, so the board grows with the explored area in any direction
+ * and never has to store the unexplored rectangle around it.
+ * 
+ * Each allocated chunk gets a slot and its squares are stored together, so a
+ * square's index is (slot << SQUARE_SHIFT) | (row << CHUNK_SHIFT) | column.
+ * For example, the relative coordinate (1 west, 5 north) is (-1,-5) which is
+ * row 59, column 63 of the chunk at chunk coordinate (-1,-1). Chunks remember
+ * the slots of their neighbours so searches can step between them without
+ * looking chunks up.
+ * 
+ * Note: x coordinate refer to east-west where east is positive and y
  * coordinates refer to north-south where south is positive.
  * 
  * The map provides a number of useful methods to the ant:
  * 	- finding a nearby unknown location to scout (suggestScout)
  *  - finding a nearby food to gather (suggestFood)
+ *  - handing the closest foods to a batch of gatherers at once (assignFood)
+ *  	or offering them to be claimed (closestFood and takeFood)
  *  - find the shortest path between two points on the map, to the hive
  *  	or to the set target.
  */
 
-import java.util.HashMap;
-import java.util.PriorityQueue;
-import java.util.Stack;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
 import ants.*;
 
 public class Board {
-	final private int WIDTH = 20; //Size of the board.
-	final private byte HIVE = -1; //Mark board index as hive
-	final private byte WALL = -2; //Mark board index as wall
-	final private byte UNKWOWN = -3; //Mark board index as unexplored
+	final static int CHUNK_SHIFT = 6; //Log2 of the width of a chunk.
+	final private static int CHUNK_WIDTH = 1 << CHUNK_SHIFT; //Width of a chunk.
+	final private static int CHUNK_MASK = CHUNK_WIDTH - 1; //Mask of a chunk column or row.
+	final private static int SQUARE_SHIFT = 2 * CHUNK_SHIFT; //Log2 of squares in a chunk.
+	final private static int HIVE = 0; //Index of the hive square.
+	final static int NONE = -1; //Index of a square or slot not on the board.
+	final private static byte FROM_START = 1 << 4; //Search flag of the start square.
+	final private static int PARALLEL_ROWS = 1 << 10; //Fewest rows a food scan splits.
+	
+	private int chunks; //Number of chunks allocated.
+	private int[] chunkX; //East-west chunk coordinate of each slot.
+	private int[] chunkY; //North-south chunk coordinate of each slot.
+	private int[] links; //Slot of each chunk's neighbour in each direction or NONE.
+	private int[] table; //Hash table of slot + 1 keyed by chunk coordinate.
+	
+	private byte[] food; //Amount of food on each square.
+	private long[] known; //Bit set if the square has been seen.
+	private long[] wall; //Bit set if the square is a wall.
+	private long[] travelable; //Bit set if the square is known and not a wall.
+	private long[] stocked; //Bit set if the square has food on it.
+	private int[] chunkFood; //Number of squares with food in each chunk.
+	private int foodSquares; //Number of squares with food on the board.
+	
+	private int minX; //Bounds of the known squares, used for printing.
+	private int maxX;
+	private int minY;
+	private int maxY;
+	
+	private int version; //Counts changes to the board, only ever goes up.
+	private int[] rowVersion; //Version of the last change to each row.
+	private int since; //Version a board that was read is a delta from, 0 if whole.
+	
+	private int[] changed; //Squares whose travellability changed, oldest first.
+	private int changes; //Number of squares in the change log.
+	private int epoch; //Goes up whenever the change log is dropped.
 	
-	private byte[][] board; //Map the game
+	// Distances and predecessors of the last search, reused between searches.
+	private transient SearchSpace space;
+	// Distances kept up to date from the hive and from the start of the last
+	// computeDistances, created on first use.
+	private transient DistanceField home;
+	// Routes found recently, reused while nothing could have changed them.
+	private transient PathCache paths;
+	private transient DistanceField distances;
+	// Coarse map for planning long routes hierarchically, created on first use.
+	private transient Clusters clusters;
+	// Bit set if the square is travellable and has an unknown neighbor, kept
+	// up to date a row at a time as squares become known, created on first use.
+	private transient long[] frontier;
+	// Bit set for each row of a chunk whose frontier bits may be out of date,
+	// one long per slot.
+	private transient long[] stale;
+	private transient int frontierSquares; // Number of squares on the frontier.
 	// set search order so all directional searches are conducted in order.
-	public final Direction[] searchOrder = {Direction.NORTH, Direction.EAST, 
+	public final Direction[] searchOrder = {Direction.NORTH, Direction.EAST,
 			Direction.SOUTH, Direction.WEST};
 	private int currX; // The ant's current relative east-west position.
 	private int currY; // The ant's current relative north-south position.
 	private int targetX; // The ant's target east-west position.
 	private int targetY; // The ant's target north-south position.
+	private transient Planner planner; // How routes other than home are searched.
+	private transient long expanded; // Squares expanded by route searches so far.
+	private transient ForkJoinPool pool; // Pool food scans are split over, null for none.
+	private transient int budget; // Squares searches may expand each turn, 0 for no limit.
+	private transient int spent; // Squares searches have expanded this turn.
+	private transient boolean cut; // True if the last search ran out of budget.
+	private transient long budgetHits; // Searches cut short by the budget so far.
+	private transient int partial; // Square a cut route search got closest to the end.
+	// A nearest search cut short, resumed by the next one from the same start
+	// for the same goal while the search space still holds it, or null.
+	private transient Goal paused;
+	private transient int pausedStart;
+	private transient int pausedRadius;
+	private transient int pausedGeneration;
+	private transient int pausedSquares;
+	
+	// Metrics of every board, kept only if Metrics.ENABLED.
+	private static final Metrics.Histogram DISTANCES_EXPANDED =
+			Metrics.histogram("computeDistances.expanded", "squares");
+	private static final Metrics.Histogram ROUTE_EXPANDED = Metrics.histogram("route.expanded", "squares");
+	private static final LongAdder ROUTE_NONE = Metrics.counter("route.none");
+	private static final Metrics.Histogram MERGE_CHANGED = Metrics.histogram("combineBoards.changed", "squares");
+	
+	// Coordinate offsets for a single step, indexed by Direction.ordinal().
+	private static final int[] DX = new int[Direction.values().length];
+	private static final int[] DY = new int[Direction.values().length];
+	static final Direction[] DIRECTIONS = Direction.values();
+	// Ordinal of the opposite of each direction, indexed by Direction.ordinal().
+	static final byte[] OPPOSITE = new byte[Direction.values().length];
+	static {
+		for( Direction d : DIRECTIONS ){
+			switch( d ){
+			case NORTH:
+				DY[d.ordinal()] = -1;
+				OPPOSITE[d.ordinal()] = (byte)Direction.SOUTH.ordinal();
+				break;
+			case EAST:
+				DX[d.ordinal()] = 1;
+				OPPOSITE[d.ordinal()] = (byte)Direction.WEST.ordinal();
+				break;
+			case SOUTH:
+				DY[d.ordinal()] = 1;
+				OPPOSITE[d.ordinal()] = (byte)Direction.NORTH.ordinal();
+				break;
+			case WEST:
+				DX[d.ordinal()] = -1;
+				OPPOSITE[d.ordinal()] = (byte)Direction.EAST.ordinal();
+				break;
+			}
+		}
+	}
 	
 	/**
 	 * Board
@@ -54,22 +168,213 @@ public class Board {
 	 * the entire board unknown.
 	 */
 	public Board(){
-		// Instatiate the board array and set all values to unknown
-		this.board = new byte[WIDTH][WIDTH];
-		for( int y = 0 ; y < this.board.length; y++ ){
-			for( int x = 0; x < this.board[0].length; x++ ){
-				board[y][x] = this.UNKWOWN;
-			}
-		}
+		// Instatiate the chunk storage, all bits clear means the chunk is unknown.
+		this.chunks = 0;
+		this.chunkX = new int[4];
+		this.chunkY = new int[4];
+		this.links = new int[4 * DIRECTIONS.length];
+		this.table = new int[8];
+		this.food = new byte[4 << SQUARE_SHIFT];
+		this.known = new long[4 << CHUNK_SHIFT];
+		this.wall = new long[4 << CHUNK_SHIFT];
+		this.travelable = new long[4 << CHUNK_SHIFT];
+		this.stocked = new long[4 << CHUNK_SHIFT];
+		this.chunkFood = new int[4];
+		this.rowVersion = new int[4 << CHUNK_SHIFT];
+		this.changed = new int[logLength(4)];
+		this.space = new SearchSpace(4 << SQUARE_SHIFT);
+		this.paths = new PathCache(this, PathCache.DEFAULT_CAPACITY);
 		// The board is always created on spawn so the ant starts at (0,0).
+		// The hive's chunk is allocated first so the hive is square 0.
 		this.currX = 0;
 		this.currY = 0;
-		this.board[0][0] = this.HIVE;
+		this.planner = Planner.ASTAR;
+		allocate(0, 0);
+		this.known[0] |= 1L;
+		this.travelable[0] |= 1L;
+		touch(0);
 	}
-
-	// Convert position relative to hive to index into the board array.
-	private int convertToIndex( int rel ){
-		return (this.WIDTH + rel)%this.WIDTH;
+	
+	/**
+	 * Board
+	 * 
+	 * Copy what another board knows and where its ant is. Searches on the
+	 * copy start from scratch, nothing is shared with the other board.
+	 */
+	private Board(Board other){
+		this.chunks = other.chunks;
+		this.chunkX = other.chunkX.clone();
+		this.chunkY = other.chunkY.clone();
+		this.links = other.links.clone();
+		this.table = other.table.clone();
+		this.food = other.food.clone();
+		this.known = other.known.clone();
+		this.wall = other.wall.clone();
+		this.travelable = other.travelable.clone();
+		this.stocked = other.stocked.clone();
+		this.chunkFood = other.chunkFood.clone();
+		this.foodSquares = other.foodSquares;
+		this.minX = other.minX;
+		this.maxX = other.maxX;
+		this.minY = other.minY;
+		this.maxY = other.maxY;
+		this.version = other.version;
+		this.rowVersion = other.rowVersion.clone();
+		this.since = other.since;
+		this.changed = other.changed.clone();
+		this.changes = other.changes;
+		this.epoch = other.epoch;
+		// The search space grows to the board on the first search, which for
+		// a snapshot is on the thread planning with it. A snapshot is searched
+		// once so it keeps no routes.
+		this.space = new SearchSpace(0);
+		this.paths = new PathCache(this, 0);
+		this.currX = other.currX;
+		this.currY = other.currY;
+		this.planner = other.planner;
+	}
+	
+	/**
+	 * snapshot
+	 * 
+	 * @return a copy of the board with the ant where the plan ends and the
+	 * target the hive, for planning on another thread while the ant walks.
+	 */
+	Board snapshot(Path plan){
+		Board copy = new Board(this);
+		for( int i = 0; i < plan.size(); i++ ){
+			copy.currX = stepX(copy.currX, plan.peek(i));
+			copy.currY = stepY(copy.currY, plan.peek(i));
+		}
+		return copy;
+	}
+	
+	// Returns the slot of the chunk at the chunk coordinate or NONE.
+	private int slot( int cx, int cy ){
+		int mask = this.table.length - 1;
+		for( int i = hash(cx, cy) & mask; this.table[i] != 0; i = (i + 1) & mask ){
+			int s = this.table[i] - 1;
+			if( this.chunkX[s] == cx && this.chunkY[s] == cy )
+				return s;
+		}
+		return NONE;
+	}
+	
+	// Spread chunk coordinates over the hash table.
+	private static int hash( int cx, int cy ){
+		int h = cx * 0x9E3779B1 + cy;
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * allocate
+	 * 
+	 * @return the slot of the chunk at the chunk coordinate, allocating an
+	 * unknown chunk and linking it to its neighbours if there is none yet.
+	 */
+	private int allocate( int cx, int cy ){
+		int s = slot(cx, cy);
+		if( s != NONE )
+			return s;
+		
+		if( this.chunks == this.chunkX.length )
+			grow();
+		s = this.chunks++;
+		this.chunkX[s] = cx;
+		this.chunkY[s] = cy;
+		insert(s);
+		if( this.stale != null )
+			this.stale[s] = -1L;
+		
+		// Link the chunk to its neighbours both ways.
+		for( Direction d : DIRECTIONS ){
+			int n = slot(stepX(cx, d), stepY(cy, d));
+			this.links[s * DIRECTIONS.length + d.ordinal()] = n;
+			if( n != NONE )
+				this.links[n * DIRECTIONS.length + oppositeDirection(d).ordinal()] = s;
+		}
+		return s;
+	}
+	
+	// Add a slot to the hash table.
+	private void insert( int s ){
+		int mask = this.table.length - 1;
+		int i = hash(this.chunkX[s], this.chunkY[s]) & mask;
+		while( this.table[i] != 0 )
+			i = (i + 1) & mask;
+		this.table[i] = s + 1;
+	}
+	
+	// Double the number of chunks the board has room for.
+	private void grow(){
+		int capacity = this.chunkX.length * 2;
+		this.chunkX = Arrays.copyOf(this.chunkX, capacity);
+		this.chunkY = Arrays.copyOf(this.chunkY, capacity);
+		this.links = Arrays.copyOf(this.links, capacity * DIRECTIONS.length);
+		this.food = Arrays.copyOf(this.food, capacity << SQUARE_SHIFT);
+		this.known = Arrays.copyOf(this.known, capacity << CHUNK_SHIFT);
+		this.wall = Arrays.copyOf(this.wall, capacity << CHUNK_SHIFT);
+		this.travelable = Arrays.copyOf(this.travelable, capacity << CHUNK_SHIFT);
+		this.stocked = Arrays.copyOf(this.stocked, capacity << CHUNK_SHIFT);
+		this.chunkFood = Arrays.copyOf(this.chunkFood, capacity);
+		this.rowVersion = Arrays.copyOf(this.rowVersion, capacity << CHUNK_SHIFT);
+		this.changed = Arrays.copyOf(this.changed, logLength(capacity));
+		if( this.stale != null ){
+			this.frontier = Arrays.copyOf(this.frontier, capacity << CHUNK_SHIFT);
+			this.stale = Arrays.copyOf(this.stale, capacity);
+		}
+		// Keep the hash table at most half full.
+		this.table = new int[capacity * 2];
+		for( int s = 0; s < this.chunks; s++ )
+			insert(s);
+	}
+	
+	// Convert a position relative to the hive to its square index or NONE.
+	private int squareIndex( int x, int y ){
+		int s = slot(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+		if( s == NONE )
+			return NONE;
+		return (s << SQUARE_SHIFT) | ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+	}
+	
+	// Returns the east-west position relative to the hive of a square.
+	int squareX( int index ){
+		return (this.chunkX[index >>> SQUARE_SHIFT] << CHUNK_SHIFT) | (index & CHUNK_MASK);
+	}
+	
+	// Returns the north-south position relative to the hive of a square.
+	int squareY( int index ){
+		return (this.chunkY[index >>> SQUARE_SHIFT] << CHUNK_SHIFT)
+				| ((index >>> CHUNK_SHIFT) & CHUNK_MASK);
+	}
+	
+	// Returns the number of square indices in use, every index is below it.
+	int squares(){
+		return this.chunks << SQUARE_SHIFT;
+	}
+	
+	// Returns the index of the square one step from the input square or NONE.
+	int neighbor( int index, Direction d ){
+		int column = (index & CHUNK_MASK) + DX[d.ordinal()];
+		int row = ((index >>> CHUNK_SHIFT) & CHUNK_MASK) + DY[d.ordinal()];
+		int s = index >>> SQUARE_SHIFT;
+		if( ((column | row) & ~CHUNK_MASK) != 0 ){
+			// The step leaves the chunk so move to the neighbouring chunk.
+			s = this.links[s * DIRECTIONS.length + d.ordinal()];
+			if( s == NONE )
+				return NONE;
+		}
+		return (s << SQUARE_SHIFT) | ((row & CHUNK_MASK) << CHUNK_SHIFT) | (column & CHUNK_MASK);
+	}
+	
+	// Returns true if the square at the index is known and not a wall.
+	boolean isTravelable( int index ){
+		return isSet(this.travelable, index);
+	}
+	
+	// Returns true if the bit for the square at the index is set in the layer.
+	private static boolean isSet( long[] layer, int index ){
+		return index != NONE && (layer[index >>> CHUNK_SHIFT] & (1L << index)) != 0;
 	}
 	
 	// View surrounding squares and update the board
@@ -77,37 +382,22 @@ public class Board {
 	    for ( Direction d : searchOrder ){
 	    	// For each direction, get the tile and index, then update.
 			Tile t = surroundings.getTile(d);
-			HashMap<String,Integer> coords = convertDirection( this.currX, this.currY, d);
-			updateIndex( coords.get("x"), coords.get("y"), t);
+			updateIndex( stepX(this.currX, d), stepY(this.currY, d), t);
 		}
 	}
 	
 	/**
-	 * Helper function to convert a coordinate and a direction to an new coordinate.
+	 * Helpers to convert a coordinate and a direction to a new coordinate.
 	 * 
-	 * Returns a hash map from coordinate title as a string -> coordinate value.
+	 * These are table lookups rather than objects so they can be used in the
+	 * inner loops of the searches without allocating.
 	 */
-	private HashMap<String, Integer> convertDirection( int x, int y, Direction d){
-		HashMap<String, Integer> coords = new HashMap<String,Integer>();
-		// Check the direction and execute the resulting case.
-		switch( d ){
-		case NORTH:
-			y--;
-			break;
-		case EAST:
-			x++;
-			break;
-		case SOUTH:
-			y++;
-			break;
-		case WEST:
-			x--;
-			break;
-		}
-		// Output the new coordinates.
-		coords.put("y", y);
-		coords.put("x", x);
-		return coords;
+	private static int stepX( int x, Direction d ){
+		return x + DX[d.ordinal()];
+	}
+	
+	private static int stepY( int y, Direction d ){
+		return y + DY[d.ordinal()];
 	}
 	
 	// Returns opposite of input direction.
@@ -125,13 +415,10 @@ public class Board {
 		return null;
 	}
 	
-	// Returns true if the ant can move in the input direction.  
+	// Returns true if the ant can move in the input direction.
 	public boolean checkDirection(Direction d){
-		HashMap<String,Integer> coords = convertDirection( this.currX, this.currY, d);
-		//Check if the board value is a known or the hive, then can move there.
-		if( board[convertToIndex(coords.get("y"))][convertToIndex(coords.get("x"))] > -2)
-			return true;
-		return false;
+		//Check if the square is known and not a wall, then can move there.
+		return isTravelable(squareIndex(stepX(this.currX, d), stepY(this.currY, d)));
 	}
 	
 	/**
@@ -140,126 +427,854 @@ public class Board {
 	 * @param y : y value of tile to update
 	 * @param t : content of the tile.
 	 * 
-	 * Updates the value in the board array based on the input tile.
+	 * Updates the layers of the board based on the input tile.
 	 */
 	private void updateIndex(int x, int y,Tile t){
-		 byte val = board[convertToIndex(y)][convertToIndex(x)];
-		 if( val != this.HIVE){
-			 board[convertToIndex(y)][convertToIndex(x)] = tileType(t);
-		 }
+		int s = allocate(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+		int index = (s << SQUARE_SHIFT) | ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+		if( index == HIVE )
+			return;
+		int row = index >>> CHUNK_SHIFT;
+		long bit = 1L << index;
+		long beforeKnown = this.known[row];
+		long beforeWall = this.wall[row];
+		long beforeTravelable = this.travelable[row];
+		byte beforeFood = this.food[index];
+		this.known[row] |= bit;
+		if(!t.isTravelable()){
+			// If we can't travel there, it must be wall.
+			this.wall[row] |= bit;
+			this.travelable[row] &= ~bit;
+			this.food[index] = 0;
+		} else {
+			// If we can, put the amount of food.
+			this.wall[row] &= ~bit;
+			this.travelable[row] |= bit;
+			this.food[index] = (byte)t.getAmountOfFood();
+		}
+		setStocked(index, this.food[index] > 0);
+		if( ((beforeTravelable ^ this.travelable[row]) & bit) != 0 )
+			logChange(index);
+		if( beforeKnown != this.known[row] || beforeTravelable != this.travelable[row] )
+			staleFrontier(row, bit);
+		// Only record a change if the square actually changed.
+		if( beforeKnown != this.known[row] || beforeWall != this.wall[row]
+				|| beforeFood != this.food[index] )
+			touch(row);
+		
+		this.minX = Math.min(this.minX, x);
+		this.maxX = Math.max(this.maxX, x);
+		this.minY = Math.min(this.minY, y);
+		this.maxY = Math.max(this.maxY, y);
+	}
+	
+	// Mark a row as changed in a new version of the board.
+	private void touch(int row){
+		this.rowVersion[row] = ++this.version;
+	}
+	
+	// Returns the version of the board, which goes up every time it changes.
+	public int version(){
+		return this.version;
 	}
 	
 	/**
-	 * tileType
+	 * logChange
 	 * 
-	 * @param tile : tile to examine
-	 * @return the board value of that tile. Either amount of food,
-	 * wall, unknown or hive.
+	 * Record that a square became travellable or stopped being travellable
+	 * so distance fields can repair around it. If the log outgrows an eighth
+	 * of the board it is dropped and the epoch goes up, since searching again
+	 * is then about as cheap as repairing. The log is sized with the board
+	 * so logging never allocates.
 	 */
-	private byte tileType(Tile tile){
-		if(!tile.isTravelable()){
-			// If we can't travel there, it must be wall.
-			return this.WALL;
-		} else {
-			// If we can, put the amount of food.
-			return (byte)tile.getAmountOfFood();
+	private void logChange(int index){
+		if( this.changes >= logLength(this.chunks) ){
+			this.changes = 0;
+			this.epoch++;
 		}
+		this.changed[this.changes++] = index;
+	}
+	
+	// Returns the most squares the change log holds for a number of chunks.
+	private static int logLength(int chunks){
+		return Math.max(CHUNK_WIDTH, (chunks << SQUARE_SHIFT) >> 3);
+	}
+	
+	/**
+	 * staleFrontier
+	 * 
+	 * Mark the frontier bits around squares of a row that became known or
+	 * changed travellability as out of date: those of the row itself, the
+	 * rows above and below, and the rows beside it in the chunks to the east
+	 * and west if a square on the edge changed.
+	 * 
+	 * @param row : row of a chunk, (slot << CHUNK_SHIFT) | row within the chunk.
+	 * @param columns : bits of the squares that changed.
+	 */
+	private void staleFrontier(int row, long columns){
+		if( this.stale == null )
+			return;
+		int s = row >>> CHUNK_SHIFT;
+		int r = row & CHUNK_MASK;
+		this.stale[s] |= 1L << r;
+		markStale(r > 0 ? s : link(s, Direction.NORTH), (r - 1) & CHUNK_MASK);
+		markStale(r < CHUNK_MASK ? s : link(s, Direction.SOUTH), (r + 1) & CHUNK_MASK);
+		if( (columns & 1L) != 0 )
+			markStale(link(s, Direction.WEST), r);
+		if( (columns >>> CHUNK_MASK) != 0 )
+			markStale(link(s, Direction.EAST), r);
+	}
+	
+	// Mark row r of the chunk in slot s as stale, if there is a chunk.
+	private void markStale(int s, int r){
+		if( s != NONE )
+			this.stale[s] |= 1L << r;
+	}
+	
+	// Returns the slot of the chunk next to the one in slot s or NONE.
+	private int link(int s, Direction d){
+		return this.links[s * DIRECTIONS.length + d.ordinal()];
+	}
+	
+	// Returns the epoch of the change log, fields from an older epoch must
+	// search again.
+	int epoch(){
+		return this.epoch;
+	}
+	
+	// Returns the number of squares in the change log.
+	int changes(){
+		return this.changes;
+	}
+	
+	// Returns the i-th square in the change log.
+	int changed(int i){
+		return this.changed[i];
+	}
+	
+	// Keep the food layer and the counts of squares with food in step with the
+	// food count of a square.
+	private void setStocked(int index, boolean hasFood){
+		int row = index >>> CHUNK_SHIFT;
+		long before = this.stocked[row];
+		if(hasFood)
+			this.stocked[row] |= 1L << index;
+		else
+			this.stocked[row] &= ~(1L << index);
+		if( before != this.stocked[row] )
+			countFood(row, hasFood ? 1 : -1);
+	}
+	
+	// Add to the number of squares with food in the row's chunk and the board.
+	private void countFood(int row, int squares){
+		this.chunkFood[row >>> CHUNK_SHIFT] += squares;
+		this.foodSquares += squares;
+	}
+	
+	// Returns true if any known square has food on it, reachable or not.
+	public boolean hasFood(){
+		return this.foodSquares > 0;
 	}
 	
 	// Update an ant's position on the board base on an input movement direction.
 	public void updatePosition(Direction d){
-		HashMap<String,Integer> coords = convertDirection( this.currX, this.currY, d);
-		this.currY = coords.get("y");
-		this.currX = coords.get("x");
+		this.currY = stepY(this.currY, d);
+		this.currX = stepX(this.currX, d);
 	}
-
+	
+	// Returns the direction with the input ordinal.
+	private static Direction direction(int ordinal){
+		return DIRECTIONS[ordinal];
+	}
+	
 	/**
 	 * combineBoards
-	 *
+	 * 
 	 * @param new_board : input board whose information should be combined with
 	 * the ant's knowledge.
 	 * 
-	 * Iterate over the board array. If a square in our board is unknown or has 
-	 * more food, update our board. I choose to take the lower food value to prevent 
-	 * wasted work because an extra trip to an empty food is generally more 
-	 * damaging than going to a slightly further food which is guaranteed to have 
+	 * Iterate over the board rows. If a square in our board is unknown or has
+	 * more food, update our board. I choose to take the lower food value to prevent
+	 * wasted work because an extra trip to an empty food is generally more
+	 * damaging than going to a slightly further food which is guaranteed to have
 	 * food.
 	 */
 	public void combineBoards(Board new_board){
 		this.targetX = new_board.targetX;
 		this.targetY = new_board.targetY;
 		
-		for( int y = 0 ; y < this.board.length; y++ ){
-			for( int x = 0; x < this.board[0].length; x++ ){
-				// Iterate over the board.
-				if( this.board[y][x] == this.UNKWOWN || 
-						( this.board[y][x] > 0 && new_board.board[y][x] > -1 && 
-						  this.board[y][x] > new_board.board[y][x] ) )
-					// our board is unknown or our board has some food and the new board
-					// is at least known and has fewer food.
-					this.board[y][x] = new_board.board[y][x];
+		int changed = 0;
+		for( int theirs = 0; theirs < new_board.chunks; theirs++ ){
+			// Chunks are matched up by coordinate since the slots differ.
+			int ours = allocate(new_board.chunkX[theirs], new_board.chunkY[theirs]);
+			for( int r = 0; r < CHUNK_WIDTH; r++ ){
+				int theirRow = (theirs << CHUNK_SHIFT) | r;
+				if( new_board.known[theirRow] == 0 )
+					continue;
+				changed += mergeRow((ours << CHUNK_SHIFT) | r, new_board.known[theirRow],
+						new_board.wall[theirRow], new_board.travelable[theirRow],
+						new_board.stocked[theirRow], new_board.food, theirRow << CHUNK_SHIFT);
+			}
+		}
+		
+		this.minX = Math.min(this.minX, new_board.minX);
+		this.maxX = Math.max(this.maxX, new_board.maxX);
+		this.minY = Math.min(this.minY, new_board.minY);
+		this.maxY = Math.max(this.maxY, new_board.maxY);
+		if( Metrics.ENABLED )
+			MERGE_CHANGED.record(changed);
+	}
+	
+	/**
+	 * mergeRow
+	 * 
+	 * Merge another board's knowledge of one of our rows by the rules of
+	 * combineBoards: squares only they know are copied and squares we both
+	 * know as travellable keep the lower food.
+	 * 
+	 * @param row : our row, (slot << CHUNK_SHIFT) | row within the chunk.
+	 * @param food : their food counts, the row's from the offset on.
+	 * @return the number of squares that changed.
+	 */
+	private int mergeRow(int row, long known, long wall, long travelable, long stocked,
+			byte[] food, int offset){
+		// Work a row at a time. Squares only the new board knows are copied.
+		long fresh = known & ~this.known[row];
+		// Squares where we have some food and the new board is at least known
+		// and travellable may have fewer food.
+		long shared = this.stocked[row] & travelable;
+		
+		int changed = Long.bitCount(fresh);
+		this.known[row] |= fresh;
+		this.wall[row] |= wall & fresh;
+		this.travelable[row] |= travelable & fresh;
+		this.stocked[row] |= stocked & fresh;
+		countFood(row, Long.bitCount(stocked & fresh));
+		for( long bits = travelable & fresh; bits != 0; bits &= bits - 1 )
+			logChange((row << CHUNK_SHIFT) | Long.numberOfTrailingZeros(bits));
+		if( fresh != 0 )
+			staleFrontier(row, fresh);
+		
+		for( long bits = fresh & stocked; bits != 0; bits &= bits - 1 ){
+			int column = Long.numberOfTrailingZeros(bits);
+			this.food[(row << CHUNK_SHIFT) | column] = food[offset + column];
+		}
+		for( long bits = shared; bits != 0; bits &= bits - 1 ){
+			int column = Long.numberOfTrailingZeros(bits);
+			int index = (row << CHUNK_SHIFT) | column;
+			if( this.food[index] > food[offset + column] ){
+				this.food[index] = food[offset + column];
+				setStocked(index, this.food[index] > 0);
+				changed++;
+			}
+		}
+		if( changed != 0 )
+			touch(row);
+		return changed;
+	}
+	
+	/**
+	 * mergeShared
+	 * 
+	 * Merge a row of the colony's Blackboard into the board, by the same rules
+	 * as combineBoards.
+	 * 
+	 * @param cx : east-west chunk coordinate of the row.
+	 * @param cy : north-south chunk coordinate of the row.
+	 * @param r : row within the chunk.
+	 * @param food : food count of each column of the row.
+	 */
+	void mergeShared(int cx, int cy, int r, long known, long wall, long travelable, long stocked,
+			byte[] food){
+		int row = (allocate(cx, cy) << CHUNK_SHIFT) | r;
+		mergeRow(row, known, wall, travelable, stocked, food, 0);
+		int x = cx << CHUNK_SHIFT;
+		int y = (cy << CHUNK_SHIFT) | r;
+		this.minX = Math.min(this.minX, x + Long.numberOfTrailingZeros(known));
+		this.maxX = Math.max(this.maxX, x + CHUNK_MASK - Long.numberOfLeadingZeros(known));
+		this.minY = Math.min(this.minY, y);
+		this.maxY = Math.max(this.maxY, y);
+	}
+	
+	/**
+	 * share
+	 * 
+	 * Merge every known row of the board changed after a version into the
+	 * colony's Blackboard.
+	 * 
+	 * @param since : version of the board already shared, 0 for none.
+	 */
+	boolean share(Blackboard shared, int since){
+		boolean changed = false;
+		for( int s = 0; s < this.chunks; s++ ){
+			for( int r = 0; r < CHUNK_WIDTH; r++ ){
+				int row = (s << CHUNK_SHIFT) | r;
+				if( this.known[row] != 0 && this.rowVersion[row] > since )
+					changed |= shared.merge(this.chunkX[s], this.chunkY[s], r, this.known[row],
+							this.travelable[row], this.food, row << CHUNK_SHIFT);
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * encodedSize
+	 * 
+	 * @return the most bytes write can need for the board as it is now, so
+	 * callers can size the buffer they pass in.
+	 */
+	public int encodedSize(){
+		int stock = this.foodSquares;
+		// Header, ten ints and the chunk count, then for each chunk its
+		// coordinate, row mask and every row at full width, then the food.
+		return 2 + 11 * WireFormat.MAX_VARINT
+				+ this.chunks * (2 * WireFormat.MAX_VARINT + 8 + CHUNK_WIDTH * 26)
+				+ stock * 2;
+	}
+	
+	// Encode the whole board, see write(ByteBuffer, int).
+	public void write(ByteBuffer out){
+		write(out, 0);
+	}
+	
+	/**
+	 * write
+	 * 
+	 * @param out : buffer to encode the board into, starting at its position.
+	 * @param since : version of this board the reader already has, or 0 to
+	 * send the whole board.
+	 * 
+	 * Encode the board in the compact format described in WireFormat. Only
+	 * rows which are known and changed after the input version are written,
+	 * so a reader that already merged that version only gets the difference.
+	 */
+	public void write(ByteBuffer out, int since){
+		WireFormat.putHeader(out);
+		WireFormat.putVarint(out, this.version);
+		WireFormat.putVarint(out, since);
+		WireFormat.putInt(out, this.currX);
+		WireFormat.putInt(out, this.currY);
+		WireFormat.putInt(out, this.targetX);
+		WireFormat.putInt(out, this.targetY);
+		WireFormat.putInt(out, this.minX);
+		WireFormat.putInt(out, this.maxX);
+		WireFormat.putInt(out, this.minY);
+		WireFormat.putInt(out, this.maxY);
+		
+		// Count the chunks with changed rows first since the count goes first.
+		int count = 0;
+		for( int s = 0; s < this.chunks; s++ )
+			if( changedRows(s, since) != 0 )
+				count++;
+		WireFormat.putVarint(out, count);
+		
+		for( int s = 0; s < this.chunks; s++ ){
+			long rows = changedRows(s, since);
+			if( rows == 0 )
+				continue;
+			WireFormat.putInt(out, this.chunkX[s]);
+			WireFormat.putInt(out, this.chunkY[s]);
+			out.putLong(rows);
+			
+			for( long bits = rows; bits != 0; bits &= bits - 1 ){
+				int row = (s << CHUNK_SHIFT) | Long.numberOfTrailingZeros(bits);
+				// Only the span from the first to the last known column is sent.
+				long known = this.known[row];
+				int first = Long.numberOfTrailingZeros(known);
+				int span = CHUNK_WIDTH - Long.numberOfLeadingZeros(known) - first;
+				out.put((byte)first);
+				out.put((byte)span);
+				WireFormat.putBits(out, known >>> first, span);
+				WireFormat.putBits(out, this.wall[row] >>> first, span);
+				WireFormat.putBits(out, this.stocked[row] >>> first, span);
+				for( long stock = this.stocked[row]; stock != 0; stock &= stock - 1 ){
+					int index = (row << CHUNK_SHIFT) | Long.numberOfTrailingZeros(stock);
+					WireFormat.putVarint(out, this.food[index] & 0xFF);
+				}
 			}
 		}
 	}
 	
+	// Returns a bit for each known row of the chunk changed after a version.
+	private long changedRows(int s, int since){
+		long rows = 0;
+		for( int r = 0; r < CHUNK_WIDTH; r++ ){
+			int row = (s << CHUNK_SHIFT) | r;
+			if( this.known[row] != 0 && this.rowVersion[row] > since )
+				rows |= 1L << r;
+		}
+		return rows;
+	}
+	
+	/**
+	 * read
+	 * 
+	 * @param in : buffer holding a board written by write.
+	 * 
+	 * Replace everything this board knows with the encoded board. The chunk
+	 * storage is cleared and reused so a board can be used to read message
+	 * after message without allocating. If the encoded board was only the
+	 * rows changed since some version, only those rows will be known.
+	 */
+	public void read(ByteBuffer in){
+		WireFormat.checkHeader(in);
+		clear();
+		this.version = WireFormat.getVarint(in);
+		this.since = WireFormat.getVarint(in);
+		this.currX = WireFormat.getInt(in);
+		this.currY = WireFormat.getInt(in);
+		this.targetX = WireFormat.getInt(in);
+		this.targetY = WireFormat.getInt(in);
+		this.minX = WireFormat.getInt(in);
+		this.maxX = WireFormat.getInt(in);
+		this.minY = WireFormat.getInt(in);
+		this.maxY = WireFormat.getInt(in);
+		
+		int count = WireFormat.getVarint(in);
+		for( int i = 0; i < count; i++ ){
+			int s = allocate(WireFormat.getInt(in), WireFormat.getInt(in));
+			for( long bits = in.getLong(); bits != 0; bits &= bits - 1 ){
+				int row = (s << CHUNK_SHIFT) | Long.numberOfTrailingZeros(bits);
+				int first = in.get();
+				int span = in.get();
+				this.known[row] = WireFormat.getBits(in, span) << first;
+				this.wall[row] = WireFormat.getBits(in, span) << first;
+				this.travelable[row] = this.known[row] & ~this.wall[row];
+				this.stocked[row] = WireFormat.getBits(in, span) << first;
+				countFood(row, Long.bitCount(this.stocked[row]));
+				this.rowVersion[row] = this.version;
+				for( long stock = this.stocked[row]; stock != 0; stock &= stock - 1 ){
+					int index = (row << CHUNK_SHIFT) | Long.numberOfTrailingZeros(stock);
+					this.food[index] = (byte)WireFormat.getVarint(in);
+				}
+			}
+		}
+	}
+	
+	// Returns the version a board that was read is a delta from, 0 if whole.
+	public int since(){
+		return this.since;
+	}
+	
+	// Forget every chunk, leaving only the hive's chunk allocated.
+	private void clear(){
+		Arrays.fill(this.food, 0, this.chunks << SQUARE_SHIFT, (byte)0);
+		Arrays.fill(this.known, 0, this.chunks << CHUNK_SHIFT, 0L);
+		Arrays.fill(this.wall, 0, this.chunks << CHUNK_SHIFT, 0L);
+		Arrays.fill(this.travelable, 0, this.chunks << CHUNK_SHIFT, 0L);
+		Arrays.fill(this.stocked, 0, this.chunks << CHUNK_SHIFT, 0L);
+		Arrays.fill(this.chunkFood, 0, this.chunks, 0);
+		this.foodSquares = 0;
+		Arrays.fill(this.rowVersion, 0, this.chunks << CHUNK_SHIFT, 0);
+		if( this.stale != null ){
+			Arrays.fill(this.frontier, 0, this.chunks << CHUNK_SHIFT, 0L);
+			this.frontierSquares = 0;
+		}
+		Arrays.fill(this.table, 0);
+		this.chunks = 0;
+		this.changes = 0;
+		this.epoch++;
+		allocate(0, 0);
+	}
+	
 	/**
 	 * Route
 	 * 
-	 * Implementation of Dijkstra's algorithm on the game board.
+	 * Shortest path between two squares on the game board.
 	 * 
 	 * @param x_init - starting east-west position
 	 * @param y_init - starting north-south position
 	 * @param x_final - ending east-west position
 	 * @param y_final - ending north-south position
-	 * Note: all are positions relative to the hive.
-	 * 
-	 * @return a stack of Directions such that if an ant pops a direction and moves
-	 * that way every turn, it will go from its start to end position the fastest
-	 * way known.
-	 */
-	private Stack<Direction> Route(int x_init, int y_init, int x_final, int y_final){
-		// Convert from relative position to array indices
-		x_init = convertToIndex(x_init);
-		x_final = convertToIndex(x_final);
-		y_init = convertToIndex(y_init);
-		y_final = convertToIndex(y_final);
-		
-		// If start and are the same, return an empty stack.
+	 * @param path - path to write the route into, whatever it held is lost.
+	 * Note: all positions are relative to the hive.
+	 * 
+	 * @return true if there is a route, the path then holds the moves such that
+	 * if an ant takes the next one every turn, it will go from its start to
+	 * end position the fastest way known. If the search ran out of budget,
+	 * see wasCut, the path instead holds the route to the square it got
+	 * closest to the end. Otherwise the path is left empty.
+	 */
+	private boolean Route(int x_init, int y_init, int x_final, int y_final, Path path){
+		path.clear();
+		path.ensureCapacity(routeRoom());
+		this.cut = false;
+		// If start and are the same, the empty path is the route.
 		if(x_init == x_final && y_init == y_final)
-			return new Stack<Direction>();
+			return true;
 		
-		// Build the vertex graph and assign distances
-		Vertex[][] vertexMap = computeDistances(x_init,y_init);
+		// Convert from relative position to square indices
+		int start = squareIndex(x_init, y_init);
+		int end = squareIndex(x_final, y_final);
 		
-		// Get the start and end vertices and make sure they are both known.
-		Vertex start = vertexMap[y_init][x_init];
-		Vertex end = vertexMap[y_final][x_final];
-		if(start == null || end == null )
-			return null;
+		// Make sure the start and end are both known.
+		if(!isTravelable(start) || !isTravelable(end))
+			return false;
 		
+		// Use the route found last time if nothing since could change it.
+		if( this.paths.get(start, end, path) )
+			return true;
 		
-		Stack<Direction> path = new Stack<Direction>();
-		// We add directions to the stack from end to start, updating end.
-		while(end != start){
-			// Protect against an error in the distance computation.
-			if( end == null )
-				return null;
-			// Add the direction to get to end.
-			path.push(oppositeDirection(end.pred));
-			// Compute the new end and update.
-			HashMap<String,Integer> coord = convertDirection(end.x,end.y,end.pred);
-			end = vertexMap[convertToIndex(coord.get("y"))][convertToIndex(coord.get("x"))];
+		long before = Metrics.ENABLED ? expanded() : 0;
+		boolean found = end == HIVE ? walkHome(start, path) : searchRoute(start, end, path);
+		if( Metrics.ENABLED && end != HIVE )
+			ROUTE_EXPANDED.record(expanded() - before);
+		if( !found )
+			path.clear();
+		else if( !this.cut )
+			this.paths.put(start, end, path);
+		return found;
+	}
+	
+	/**
+	 * walkHome
+	 * 
+	 * Write the route from the start square to the hive into the path, read
+	 * off the distances from the hive which only need repairing around what
+	 * changed since the last route home.
+	 * 
+	 * @return true if there is a route.
+	 */
+	private boolean walkHome(int start, Path path){
+		DistanceField field = hiveField();
+		field.update(HIVE);
+		if( field.dist(start) == SearchSpace.UNREACHED )
+			return false;
+		
+		// Walk from the start down the distances to the end.
+		path.reset(field.dist(start));
+		for( int i = 0, index = start; index != HIVE; i++ ){
+			Direction move = direction(field.pred(index));
+			path.set(i, move);
+			index = neighbor(index, move);
+		}
+		return true;
+	}
+	
+	/**
+	 * searchRoute
+	 * 
+	 * Write the route from the start square to the end square found by the
+	 * board's planner into the path. An A* or jump point search that runs out
+	 * of budget writes the route to the square it got closest to the end
+	 * instead, so the ant heads that way and searches again when it arrives.
+	 * 
+	 * @return true if there is a route.
+	 */
+	private boolean searchRoute(int start, int end, Path path){
+		if( this.planner == Planner.HIERARCHICAL
+				&& manhattan(start, squareX(end), squareY(end)) > 2 * Clusters.CLUSTER_WIDTH ){
+			if( this.clusters == null )
+				this.clusters = new Clusters(this);
+			return this.clusters.route(start, end, this.space, path);
+		}
+		boolean found = this.planner == Planner.JUMP_POINTS ? jumpSearch(start, end)
+				: aStar(start, end);
+		if( !found ){
+			if( !this.cut || this.partial == start )
+				return false;
+			end = this.partial;
+		}
+		
+		// We add directions to the path from end to start, updating end. A jump
+		// skips the squares between its ends so step back along it until a
+		// square the search reached at the distance left, whose own way back
+		// is then as short.
+		int dist = this.space.dist(end);
+		path.reset(dist);
+		while( end != start ){
+			Direction pred = direction(this.space.pred(end));
+			do {
+				// Add the direction to get to end.
+				dist--;
+				path.set(dist, oppositeDirection(pred));
+				// Compute the new end and update.
+				end = neighbor(end, pred);
+			} while( !this.space.reached(end) || this.space.dist(end) != dist );
+		}
+		return true;
+	}
+	
+	/**
+	 * Ways Route can search for routes other than home. A* and jump point
+	 * search find a shortest route, jump point search expanding fewer squares
+	 * on open ground. Hierarchical plans far targets over Clusters, expanding
+	 * far fewer squares on large boards for a route a few moves longer, and
+	 * near ones with A*.
+	 */
+	public enum Planner {
+		ASTAR, JUMP_POINTS, HIERARCHICAL
+	}
+	
+	// Choose how routes other than home are searched. Routes kept by the
+	// other planner are forgotten.
+	public void setPlanner(Planner planner){
+		if( planner != this.planner )
+			this.paths.clear();
+		this.planner = planner;
+	}
+	
+	// Split the food scans of large boards over a pool, or null to scan on
+	// the calling thread.
+	public void setPool(ForkJoinPool pool){
+		this.pool = pool;
+	}
+	
+	// Returns the cache of recent routes, to resize it or read its counters.
+	public PathCache pathCache(){
+		return this.paths;
+	}
+	
+	/**
+	 * setBudget
+	 * 
+	 * Limit the squares the nearest, A* and jump point searches may expand
+	 * in a turn, 0 for no limit. A nearest search that runs out is picked up
+	 * where it stopped by the next one from the same square, and a route
+	 * search returns the way to the square it got closest to, so the work
+	 * of a long search is spread over turns. Routes home and hierarchical
+	 * searches are not limited.
+	 */
+	public void setBudget(int squares){
+		this.budget = squares;
+	}
+	
+	// Start a new turn's budget.
+	public void newTurn(){
+		this.spent = 0;
+	}
+	
+	// Returns true if the last search ran out of budget before it finished.
+	public boolean wasCut(){
+		return this.cut;
+	}
+	
+	// Returns the number of searches cut short by the budget so far.
+	public long budgetHits(){
+		return this.budgetHits;
+	}
+	
+	// Count a square about to be expanded against the turn's budget. Returns
+	// false, marking the search as cut, if the budget is spent.
+	private boolean spend(){
+		if( this.budget != 0 && this.spent >= this.budget ){
+			this.cut = true;
+			this.budgetHits++;
+			return false;
 		}
-		return path;
+		this.spent++;
+		return true;
+	}
+	
+	// Returns the number of squares route searches have expanded so far.
+	long expanded(){
+		return this.clusters == null ? this.expanded : this.expanded + this.clusters.expanded();
+	}
+	
+	/**
+	 * aStar
+	 * 
+	 * Search from the start square toward the end square, expanding squares
+	 * in order of the distance so far plus the Manhattan distance left, which
+	 * is never more than the real distance left. Of squares with the same
+	 * total the one nearer the end goes first. The search stops once the end
+	 * is expanded so a near target only looks at the squares around the way
+	 * there. Distances and predecessors are left in the search space.
+	 * 
+	 * @return true if the end was reached. If the budget ran out first the
+	 * expanded square closest to the end is left in partial.
+	 */
+	private boolean aStar(int start, int end){
+		int endX = squareX(end);
+		int endY = squareY(end);
+		this.space.ensureCapacity(squares());
+		this.space.begin();
+		int left = manhattan(start, endX, endY);
+		this.space.open(start, 0, SearchSpace.NO_PRED, left, left);
+		this.partial = start;
+		int closest = left;
+		while( !this.space.isOpenEmpty() ){
+			int index = this.space.pollOpen();
+			// Squares are opened again when a shorter way is found, skip the
+			// old entries.
+			if( this.space.isClosed(index) )
+				continue;
+			if( !spend() )
+				return false;
+			this.space.close(index);
+			this.expanded++;
+			if( index == end )
+				return true;
+			if( manhattan(index, endX, endY) < closest ){
+				this.partial = index;
+				closest = manhattan(index, endX, endY);
+			}
+			
+			int dist = this.space.dist(index) + 1;
+			for( Direction d : this.searchOrder ){
+				int next = neighbor(index, d);
+				if( isTravelable(next) && !this.space.isClosed(next) && dist < this.space.dist(next) ){
+					left = manhattan(next, endX, endY);
+					this.space.open(next, dist, OPPOSITE[d.ordinal()], dist + left, left);
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * jumpSearch
+	 * 
+	 * A* that only expands the squares where a shortest route might have to
+	 * turn, jump point search adapted to moves in four directions.
+	 * 
+	 * Any shortest route can be rearranged so that it only turns from east or
+	 * west to north or south where the square diagonally behind the turn is
+	 * blocked, otherwise the vertical move could have come first. So after an
+	 * east-west move the route only goes on straight or takes such a forced
+	 * turn, and after a north-south move it goes anywhere but back. Squares
+	 * in a row with no forced turn are jumped over in one go.
+	 * 
+	 * Which turns a square allows depends on how it was reached, so each
+	 * square keeps a flag for each direction it was reached from at its
+	 * distance, and is expanded again if it is reached from a new direction
+	 * after it was closed.
+	 * 
+	 * @return true if the end was reached, see aStar if the budget ran out.
+	 */
+	private boolean jumpSearch(int start, int end){
+		int endX = squareX(end);
+		int endY = squareY(end);
+		this.space.ensureCapacity(squares());
+		this.space.begin();
+		int left = manhattan(start, endX, endY);
+		this.space.open(start, 0, SearchSpace.NO_PRED, left, left);
+		this.space.setFlags(start, FROM_START);
+		this.partial = start;
+		int closest = left;
+		while( !this.space.isOpenEmpty() ){
+			int index = this.space.pollOpen();
+			if( this.space.isClosed(index) )
+				continue;
+			if( !spend() )
+				return false;
+			this.space.close(index);
+			this.expanded++;
+			if( index == end )
+				return true;
+			if( manhattan(index, endX, endY) < closest ){
+				this.partial = index;
+				closest = manhattan(index, endX, endY);
+			}
+			
+			int x = squareX(index);
+			int dist = this.space.dist(index);
+			byte from = this.space.flags(index);
+			for( Direction d : this.searchOrder ){
+				if( !canGo(index, from, d) )
+					continue;
+				int next = isHorizontal(d) ? jump(index, d, end) : neighbor(index, d);
+				if( !isTravelable(next) )
+					continue;
+				// Jumps are along a row so only the east-west position changes.
+				int length = dist + Math.max(1, Math.abs(squareX(next) - x));
+				byte back = OPPOSITE[d.ordinal()];
+				byte flag = (byte)(1 << back);
+				left = manhattan(next, endX, endY);
+				if( length < this.space.dist(next) ){
+					this.space.open(next, length, back, length + left, left);
+					this.space.setFlags(next, flag);
+				} else if( length == this.space.dist(next) && (this.space.flags(next) & flag) == 0 ){
+					// Just as short from a new direction, which may allow new turns.
+					this.space.setFlags(next, (byte)(this.space.flags(next) | flag));
+					if( this.space.isClosed(next) )
+						this.space.reopen(next, length + left, left);
+				}
+			}
+		}
+		return false;
+	}
+	
+	// Returns true if a route that reached the square from any of the
+	// directions flagged can go on in direction d.
+	private boolean canGo(int index, byte from, Direction d){
+		if( (from & FROM_START) != 0 )
+			return true;
+		for( int back = 0; back < DIRECTIONS.length; back++ )
+			if( (from & (1 << back)) != 0 && canTurn(index, (byte)back, d) )
+				return true;
+		return false;
+	}
+	
+	// Returns true if a route that reached the square from the direction back
+	// can go on in direction d, see jumpSearch.
+	private boolean canTurn(int index, byte back, Direction d){
+		if( d.ordinal() == back )
+			return false;
+		Direction behind = direction(back);
+		if( !isHorizontal(behind) || isHorizontal(d) )
+			return true;
+		// Turning off a row, only if the way round the other side is blocked.
+		return !isTravelable(neighbor(neighbor(index, behind), d));
+	}
+	
+	/**
+	 * jump
+	 * 
+	 * Step from the square along its row in direction d until the end, a
+	 * square where a turn is forced or a blocked square.
+	 * 
+	 * @return the square stopped at, or NONE if the row is blocked first.
+	 */
+	private int jump(int index, Direction d, int end){
+		while( true ){
+			int next = neighbor(index, d);
+			if( !isTravelable(next) )
+				return NONE;
+			if( next == end )
+				return next;
+			// A turn is forced where the squares beside the previous square are
+			// blocked but the squares beside this one are not.
+			if( (isTravelable(neighbor(next, Direction.NORTH)) && !isTravelable(neighbor(index, Direction.NORTH)))
+					|| (isTravelable(neighbor(next, Direction.SOUTH)) && !isTravelable(neighbor(index, Direction.SOUTH))) )
+				return next;
+			index = next;
+		}
+	}
+	
+	// Returns true if the direction is east or west.
+	private static boolean isHorizontal(Direction d){
+		return d == Direction.EAST || d == Direction.WEST;
+	}
+	
+	// Returns the number of moves from the square to the position if there
+	// were no walls.
+	private int manhattan(int index, int x, int y){
+		return Math.abs(squareX(index) - x) + Math.abs(squareY(index) - y);
+	}
+	
+	/**
+	 * hiveField
+	 * 
+	 * @return the distances of every square from the hive. The hive never
+	 * moves so the field is searched once and after that only repaired around
+	 * squares as they are found or blocked, which makes every route home a
+	 * walk down the field with no search at all.
+	 */
+	private DistanceField hiveField(){
+		if( this.home == null )
+			this.home = new DistanceField(this);
+		return this.home;
 	}
 	
 	// Helper debugging function to examine an ant's knowledge of the world.
 	public void printBoard(){
-		for( int y = 0 ; y < WIDTH; y++ ){
-			for( int x = 0; x < WIDTH; x++ ){
-				if(this.board[y][x] == this.UNKWOWN ){
+		for( int y = this.minY ; y <= this.maxY; y++ ){
+			for( int x = this.minX; x <= this.maxX; x++ ){
+				int index = squareIndex(x, y);
+				if( !isSet(this.known, index) ){
 					System.out.print("?");
-				} else if(this.board[y][x] == this.WALL){
+				} else if( isSet(this.wall, index) ){
 					System.out.print("X");
 				} else if(x == 0 && y == 0){
 					System.out.print("O");
@@ -271,97 +1286,193 @@ public class Board {
 		}
 	}
 	
+	// Returns the ant's east-west position relative to the hive.
+	int x(){
+		return this.currX;
+	}
+	
+	// Returns the ant's north-south position relative to the hive.
+	int y(){
+		return this.currY;
+	}
+	
+	// Returns the target's east-west position relative to the hive.
+	int targetX(){
+		return this.targetX;
+	}
+	
+	// Returns the target's north-south position relative to the hive.
+	int targetY(){
+		return this.targetY;
+	}
+	
 	// Return true if the ant is at the hive.
 	public boolean atHive(){
 		return (this.currX == 0 && this.currY == 0);
 	}
 	
-	// Wrapper function for a route to hive.
-	public Stack<Direction> RouteToHive(){
-		return Route(this.currX, this.currY, 0, 0);
+	// Wrapper function for a route to hive, this only walks down the distances
+	// from the hive so it costs the length of the route.
+	public boolean RouteToHive(Path path){
+		boolean found = Route(this.currX, this.currY, 0, 0, path);
+		if( Metrics.ENABLED && !found )
+			ROUTE_NONE.increment();
+		return found;
+	}
+	
+	// Returns the moves paths are given room for before routes are written to
+	// them, the distance around the known squares. Only a route winding
+	// through walls is longer and its path then grows.
+	int routeRoom(){
+		return 2 * (this.maxX - this.minX + this.maxY - this.minY + 2);
 	}
 	
 	// Wrapper function for a route to the ant's target.
-	public Stack<Direction> RouteToTarget(){
-		return Route(this.currX, this.currY, this.targetX, this.targetY);
+	public boolean RouteToTarget(Path path){
+		boolean found = Route(this.currX, this.currY, this.targetX, this.targetY, path);
+		if( Metrics.ENABLED && !found )
+			ROUTE_NONE.increment();
+		return found;
+	}
+	
+	/**
+	 * A kind of square nearest can look for.
+	 */
+	interface Goal {
+		// Returns true if the square at the index is one being looked for.
+		boolean matches(int index);
+	}
+	
+	// Squares with food on them.
+	private final transient Goal hasFood = new Goal(){
+		public boolean matches(int index){
+			return isSet(stocked, index);
+		}
+	};
+	
+	// Travellable squares with an unknown neighbor, as of the last findFrontier.
+	private final transient Goal onFrontier = new Goal(){
+		public boolean matches(int index){
+			return isSet(frontier, index);
+		}
+	};
+	
+	/**
+	 * nearest
+	 * 
+	 * Search outward from the ant for the closest square the goal matches.
+	 * Every move costs one turn so a breadth first search reaches squares in
+	 * order of distance, the first match is the closest and the search stops
+	 * there rather than measuring the whole board. It includes only known,
+	 * travellable squares. The distances and predecessors of the squares
+	 * reached are left in the board's search space.
+	 * 
+	 * If the budget runs out the search is paused and NONE returned, with
+	 * wasCut true. The next search for the same goal from the same square
+	 * carries on from where it stopped, as long as no other search has used
+	 * the search space and the board has not grown since. Squares reached
+	 * before the pause are not looked at again.
+	 * 
+	 * @param goal : the kind of square to look for.
+	 * @param maxRadius : most moves away from the ant to look.
+	 * @return the index of the closest matching square, the first in search
+	 * order if there is a tie, or NONE if there is none within the radius.
+	 */
+	int nearest(Goal goal, int maxRadius){
+		int start = squareIndex(this.currX, this.currY);
+		this.cut = false;
+		if( goal != this.paused || start != this.pausedStart || maxRadius != this.pausedRadius
+				|| this.space.generation() != this.pausedGeneration
+				|| squares() != this.pausedSquares ){
+			this.space.ensureCapacity(squares());
+			this.space.begin();
+			// If the start is not travellable nothing is reachable.
+			if( !isTravelable(start) )
+				return NONE;
+			if( goal.matches(start) )
+				return start;
+			this.space.reach(start, 0, SearchSpace.NO_PRED);
+		}
+		this.paused = null;
+		
+		while( !this.space.isEmpty() ){
+			if( !spend() ){
+				// Out of budget, keep the search to pick up next turn.
+				this.paused = goal;
+				this.pausedStart = start;
+				this.pausedRadius = maxRadius;
+				this.pausedGeneration = this.space.generation();
+				this.pausedSquares = squares();
+				return NONE;
+			}
+			// Get the closest square, every square after it is at least as far.
+			int index = this.space.poll();
+			int dist = this.space.dist(index);
+			if( dist >= maxRadius )
+				break;
+			
+			for( Direction d : this.searchOrder){
+				// Iterate over closest square's neighbors
+				int next = neighbor(index, d);
+				if( isTravelable(next) && !this.space.reached(next) ){
+					// If the neighbor has not been reached yet, this is the
+					// shortest way to it.
+					this.space.reach(next, dist+1, OPPOSITE[d.ordinal()]);
+					if( goal.matches(next) )
+						return next;
+				}
+			}
+		}
+		return NONE;
 	}
 	
 	/**
 	 * computeDistances
 	 * 
 	 * Method to compute the number of turns it will take to get to a
-	 * square so ant's can find the closest unknown or food square. It
-	 * includes only known, travellable squares as vertices.
+	 * square. It includes only known, travellable squares as vertices.
+	 * 
+	 * The distances come from a DistanceField which is only repaired, not
+	 * searched again, when asked for the same start as last time. This
+	 * builds the Vertex view of it for callers that want one.
 	 * 
 	 * @param x_init - starting east-west position.
 	 * @param y_init - starting north-south position.
 	 * Note: these are relative to the hive
 	 * 
-	 * @return a 2d array of Vertices each with it's distance from the 
-	 * input position and it's predicessor in the path to it of that 
-	 * length.
+	 * @return a 2d array of Vertices each with it's distance from the
+	 * input position and it's predicessor in the path to it of that
+	 * length. The array covers the known squares, so entry [0][0] is the
+	 * north-west corner of the known area rather than the hive. Each vertex
+	 * holds its position relative to the hive.
 	 * 
 	 */
 	public Vertex[][] computeDistances(int x_init, int y_init){
-		// Vertex priority queue is sorted by distance.
-		PriorityQueue<Vertex> pq = new PriorityQueue<Vertex>();
 		// Vertex table to return.
-		Vertex[][] vertexMap = new Vertex[WIDTH][WIDTH];
-		
-		// Convert from relative coordinates to array indices.
-		x_init = convertToIndex(x_init);
-		y_init = convertToIndex(y_init);
-		
+		Vertex[][] vertexMap = new Vertex[this.maxY - this.minY + 1][this.maxX - this.minX + 1];
+		if( this.distances == null )
+			this.distances = new DistanceField(this);
+		long before = this.distances.expanded();
+		this.distances.update(squareIndex(x_init, y_init));
+		if( Metrics.ENABLED )
+			DISTANCES_EXPANDED.record(this.distances.expanded() - before);
 		
-		for( int y = 0 ; y < vertexMap.length; y++ ){
-			for( int x = 0; x < vertexMap[0].length; x++ ){
-				// Iterate over all vertices.
-				if(this.board[y][x] == this.UNKWOWN || this.board[y][x] == this.WALL){
-					// The terran in that square is unknown or untravellable
-					// so we do not want a vertex representing it.
-					vertexMap[y][x] = null;
-				} else {
-					// The vertex is travellable so add a vertex.
-					vertexMap[y][x] = new Vertex(x,y);
-					
-					if(x == x_init && y == y_init)
-						// This is the start so set the dist to 0.
-						vertexMap[y][x].dist = 0;
-					if(this.board[y][x]>0)
-						// The vertex has food so update food.
-						vertexMap[y][x].food = this.board[y][x];
-					
-					pq.add(vertexMap[y][x]);
-				}
-			}
-		}
-		
-		// Now we will compute distances, this is normally part of the graph
-		// initialization in Dijkstra's.
-		while( !pq.isEmpty() ){
-			// Get the closest vertex.
-			Vertex v = pq.poll();
-			
-			for( Direction d : this.searchOrder){
-				// Iterate over closest vertex's neighbors
-				HashMap<String,Integer> coord = convertDirection(v.x,v.y,d);
-				int x = convertToIndex(coord.get("x"));
-				int y = convertToIndex(coord.get("y"));
-				
-				if(vertexMap[y][x] != null && v.dist+1 < vertexMap[y][x].dist){
-					// If there is a vertex there and it is still far away
-					// we remove from the priority queue and update its distance
-					// then reinsert.
-					pq.remove(vertexMap[y][x]);
-					vertexMap[y][x].dist = v.dist+1;
-					vertexMap[y][x].pred = oppositeDirection(d);
-					pq.add(vertexMap[y][x]);
-				}
+		for( int row = 0; row < this.chunks << CHUNK_SHIFT; row++ ){
+			// Iterate over the travellable squares only, squares that are unknown
+			// or walls are left without a vertex representing them.
+			for( long bits = this.travelable[row]; bits != 0; bits &= bits - 1 ){
+				int index = (row << CHUNK_SHIFT) | Long.numberOfTrailingZeros(bits);
+				Vertex v = new Vertex(squareX(index), squareY(index));
+				vertexMap[v.y - this.minY][v.x - this.minX] = v;
+				v.food = this.food[index];
+				v.dist = this.distances.dist(index);
+				if( this.distances.pred(index) != SearchSpace.NO_PRED )
+					v.pred = direction(this.distances.pred(index));
 			}
 		}
 		return vertexMap;
 	}
-
+	
 	/**
 	 * suggestFood
 	 * 
@@ -371,33 +1482,218 @@ public class Board {
 	 * This is only called when an ant plans on going to food itself or is the
 	 * waggler and is assigning a duty to a gatherer. In either case, there will
 	 * be a food item gathered from that square and so we decrement the food to
-	 * maintain an accurate record of the map and prevent wasted work by 
+	 * maintain an accurate record of the map and prevent wasted work by
 	 * gatherers.
+	 * 
+	 * If the search runs out of budget the target is left as it was and
+	 * wasCut is true, calling again next turn carries on with the search.
 	 */
 	public void suggestFood(){
-		// Compute distances of all vertices.
-		Vertex[][] vertexMap = computeDistances(this.currX,this.currY);
-		// Current known closest vertex with food.
-		Vertex minVertex = null; 
+		// Search outward until the closest square with food, unless there is no
+		// food anywhere and the search would look at every square for nothing.
+		this.cut = false;
+		int minIndex = this.foodSquares == 0 ? NONE : nearest(this.hasFood, Integer.MAX_VALUE);
+		
+		if( minIndex != NONE ){
+			// If there is a known closest square with food, update target.
+			this.targetX = squareX(minIndex);
+			this.targetY = squareY(minIndex);
+			// Update the amount of food on the target square since some ant
+			// must go gather.
+			takeFood(minIndex);
+		}
+	}
+	
+	/**
+	 * assignFood
+	 * 
+	 * Hand the closest foods to the hive to a batch of gatherers, one food
+	 * each, see closestFood. Like suggestFood the food handed out is taken
+	 * off the board so no other ant is sent for it.
+	 * 
+	 * @return the number of foods handed out, closest first, fewer than the
+	 * count if there is not enough food reachable from the hive.
+	 */
+	public int assignFood(int count, int[] targetX, int[] targetY){
+		int found = closestFood(count, targetX, targetY);
+		for( int i = 0; i < found; i++ )
+			takeFood(targetX[i], targetY[i]);
+		return found;
+	}
+	
+	/**
+	 * closestFood
+	 * 
+	 * Find the closest foods to the hive for a batch of gatherers, one food
+	 * each. This is what the waggler does when several ants are at the hive,
+	 * and instead of a search for each ant it reads every food's distance
+	 * off the hive field, which only needs repairing around what changed
+	 * since it was last used, and keeps the closest in one pass over the
+	 * food. A square with several food can be found once for each. Every
+	 * gatherer starts from the hive, so the closest foods are also the
+	 * matching of gatherers to foods with the shortest trips in total.
+	 * 
+	 * Nothing is taken off the board, see takeFood. On boards of more than
+	 * PARALLEL_ROWS rows the pass is split over the pool, if one was set.
+	 * 
+	 * @param count : number of foods to find.
+	 * @param targetX : filled with the east-west position of each food.
+	 * @param targetY : filled with the north-south position of each food.
+	 * @return the number of foods found, closest first, fewer than the count
+	 * if there is not enough food reachable from the hive.
+	 */
+	public int closestFood(int count, int[] targetX, int[] targetY){
+		if( count <= 0 || this.foodSquares == 0 )
+			return 0;
+		DistanceField field = hiveField();
+		field.update(HIVE);
+		int rows = this.chunks << CHUNK_SHIFT;
+		Picks picks = this.pool != null && rows > PARALLEL_ROWS
+				? this.pool.invoke(new FoodScan(this, field, count, 0, rows))
+				: scanFood(field, count, 0, rows);
 		
-		for(int y = 0; y < vertexMap.length; y++){
-			for(int x = 0; x < vertexMap[0].length; x++){
-				// Iterate over all vertices, updating the closest vertex as necessary.
-				if( vertexMap[y][x] != null &&  vertexMap[y][x].food > 0 &&
-					(minVertex == null || vertexMap[y][x].compareTo(minVertex) < 0)  )
-					//update minVertex to the closest vertex with food. 
-					minVertex = vertexMap[y][x];
+		int found = picks.sort();
+		for( int i = 0; i < found; i++ ){
+			int index = picks.square(i);
+			targetX[i] = squareX(index);
+			targetY[i] = squareY(index);
+		}
+		return found;
+	}
+	
+	// Take one food off the square at a position relative to the hive, for an
+	// ant that has been sent to gather it.
+	public void takeFood(int x, int y){
+		int index = squareIndex(x, y);
+		if( index != NONE && this.food[index] > 0 )
+			takeFood(index);
+	}
+	
+	// Take one food off the square.
+	private void takeFood(int index){
+		this.food[index]--;
+		setStocked(index, this.food[index] > 0);
+		touch(index >>> CHUNK_SHIFT);
+	}
+	
+	// Keep the closest foods to the hive in rows from up to but not including
+	// to, as many as count.
+	private Picks scanFood(DistanceField field, int count, int from, int to){
+		Picks picks = new Picks(count);
+		for( int row = from; row < to; row++ ){
+			if( this.chunkFood[row >>> CHUNK_SHIFT] == 0 ){
+				// Skip to the last row of a chunk with no food.
+				row |= CHUNK_MASK;
+				continue;
 			}
+			for( long bits = this.stocked[row]; bits != 0; bits &= bits - 1 ){
+				int index = (row << CHUNK_SHIFT) | Long.numberOfTrailingZeros(bits);
+				int dist = field.dist(index);
+				if( dist == SearchSpace.UNREACHED )
+					continue;
+				long key = ((long)dist << 32) | index;
+				for( int n = Math.min(this.food[index] & 0xFF, count); n > 0; n-- )
+					if( !picks.offer(key) )
+						break;
+			}
+		}
+		return picks;
+	}
+	
+	/**
+	 * The closest foods a scan has found as (distance << 32) | square, kept
+	 * in a max heap no bigger than the number wanted so the furthest one kept
+	 * is the one a closer food replaces.
+	 */
+	private static final class Picks {
+		private final long[] heap;	// Keys of the foods kept, furthest on top.
+		private int size;			// Number of foods kept.
+		
+		Picks(int capacity){
+			this.heap = new long[capacity];
 		}
 		
-		// We now know the min vertex.
-		if( minVertex != null ){
-			// If there is a known closest vertex with food, update target.
-			this.targetX = minVertex.x;
-			this.targetY = minVertex.y;
-			// Update the amount of food on the target square since some ant
-			// must go gather.
-			this.board[this.targetY][this.targetX]--;
+		// Keep the food if it is closer than the furthest kept, returns false
+		// if it was not kept.
+		boolean offer(long key){
+			if( this.size < this.heap.length ){
+				// Sift the new key up from the bottom.
+				int i = this.size++;
+				while( i > 0 && this.heap[(i - 1) >>> 1] < key ){
+					this.heap[i] = this.heap[(i - 1) >>> 1];
+					i = (i - 1) >>> 1;
+				}
+				this.heap[i] = key;
+				return true;
+			}
+			if( key >= this.heap[0] )
+				return false;
+			// Replace the top and sift it down.
+			int i = 0;
+			while( true ){
+				int child = 2 * i + 1;
+				if( child >= this.size )
+					break;
+				if( child + 1 < this.size && this.heap[child + 1] > this.heap[child] )
+					child++;
+				if( this.heap[child] <= key )
+					break;
+				this.heap[i] = this.heap[child];
+				i = child;
+			}
+			this.heap[i] = key;
+			return true;
+		}
+		
+		// Keep the closest of both scans' foods.
+		void addAll(Picks other){
+			for( int i = 0; i < other.size; i++ )
+				offer(other.heap[i]);
+		}
+		
+		// Order the foods kept closest first, after which no more can be
+		// offered, and returns how many there are.
+		int sort(){
+			Arrays.sort(this.heap, 0, this.size);
+			return this.size;
+		}
+		
+		// Returns the square of the i-th food.
+		int square(int i){
+			return (int)this.heap[i];
+		}
+	}
+	
+	/**
+	 * A scan of a range of rows for the closest foods, split in half until
+	 * the halves are small enough to scan on one thread.
+	 */
+	private static final class FoodScan extends RecursiveTask<Picks> {
+		private static final long serialVersionUID = 1L;
+		
+		private final transient Board board;
+		private final transient DistanceField field;
+		private final int count;
+		private final int from;
+		private final int to;
+		
+		FoodScan(Board board, DistanceField field, int count, int from, int to){
+			this.board = board;
+			this.field = field;
+			this.count = count;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected Picks compute(){
+			if( this.to - this.from <= PARALLEL_ROWS )
+				return this.board.scanFood(this.field, this.count, this.from, this.to);
+			int middle = (this.from + this.to) >>> 1;
+			FoodScan first = new FoodScan(this.board, this.field, this.count, this.from, middle);
+			first.fork();
+			Picks picks = new FoodScan(this.board, this.field, this.count, middle, this.to).compute();
+			picks.addAll(first.join());
+			return picks;
 		}
 	}
 	
@@ -408,50 +1704,131 @@ public class Board {
 	 * is used to optimize scouting of new territory.
 	 * 
 	 * If there is none, the target will be unchanged and remain the hive.
+	 * The same happens if the search runs out of budget, then wasCut is true
+	 * and calling again next turn carries on with the search.
 	 * 
 	 */
 	public void suggestScout(){
-		// Compute the distances of vertices from the current location.
-		Vertex[][] vertexMap = computeDistances(this.currX,this.currY);
-		// Vertex representing the nearest known
-		Vertex minVertex = null; 
-		
-		for(int y = 0; y < vertexMap.length; y++){
-			for(int x = 0; x < vertexMap[0].length; x++){
-				// Iterate through all vertices.
-				if( vertexMap[y][x] != null &&  hasUnknownNeighbor(x,y) &&
-					(minVertex == null || vertexMap[y][x].compareTo(minVertex) < 0)  )
-					// update minVertex if there is a close vertex with an unknown neighbor.
-					minVertex = vertexMap[y][x];
-			}
-		}
+		// Search outward until the closest square with an unknown neighbor, unless
+		// the whole board is explored and there is none.
+		findFrontier();
+		this.cut = false;
+		int minIndex = this.frontierSquares == 0 ? NONE
+				: nearest(this.onFrontier, Integer.MAX_VALUE);
 		
-		if( minVertex != null ){
-			// There exists a unknown vertex, go to it.
-			this.targetX = minVertex.x;
-			this.targetY = minVertex.y;
+		if( minIndex != NONE ){
+			// There exists a unknown square, go to it.
+			this.targetX = squareX(minIndex);
+			this.targetY = squareY(minIndex);
 		} else {
 			// There is none, go to the hive.
 			this.cleanTarget();
 		}
 	}
 	
-	// Determine if a square has unknown neighbor.
-	private boolean hasUnknownNeighbor(int x, int y){
-		for( Direction d : this.searchOrder){
-			// Iterate over neighboring directions, get coords and check the board.
-			HashMap<String, Integer> coords = this.convertDirection(x, y, d);
-			if(this.board[convertToIndex(coords.get("y"))][convertToIndex(coords.get("x"))] 
-			                                               == this.UNKWOWN)
+	/**
+	 * findFrontier
+	 * 
+	 * Bring the frontier layer up to date. Only the rows marked stale since
+	 * the last call are worked out again, a whole row at a time, so the cost
+	 * follows what was found since rather than how much is known. The first
+	 * call works out every row.
+	 */
+	private void findFrontier(){
+		if( this.stale == null ){
+			this.frontier = new long[this.known.length];
+			this.frontierSquares = 0;
+			this.stale = new long[this.chunkX.length];
+			Arrays.fill(this.stale, 0, this.chunks, -1L);
+		}
+		for( int s = 0; s < this.chunks; s++ ){
+			for( long rows = this.stale[s]; rows != 0; rows &= rows - 1 ){
+				int row = (s << CHUNK_SHIFT) | Long.numberOfTrailingZeros(rows);
+				long bits = frontierRow(row);
+				this.frontierSquares += Long.bitCount(bits) - Long.bitCount(this.frontier[row]);
+				this.frontier[row] = bits;
+			}
+			this.stale[s] = 0;
+		}
+	}
+	
+	/**
+	 * frontierRow
+	 * 
+	 * @param row : row of a chunk, (slot << CHUNK_SHIFT) | row within the chunk.
+	 * @return the bits of the travellable squares in the row which have an
+	 * unknown neighbor. Squares in chunks that are not allocated are unknown.
+	 */
+	private long frontierRow(int row){
+		int s = row >>> CHUNK_SHIFT;
+		int r = row & CHUNK_MASK;
+		long unknown = ~this.known[row];
+		
+		// The squares on the edges of the row look into the neighbouring chunks.
+		int east = this.links[s * DIRECTIONS.length + Direction.EAST.ordinal()];
+		int west = this.links[s * DIRECTIONS.length + Direction.WEST.ordinal()];
+		long eastEdge = east == NONE ? 1L : ~this.known[(east << CHUNK_SHIFT) | r] & 1L;
+		long westEdge = west == NONE ? 1L : ~this.known[(west << CHUNK_SHIFT) | r] >>> CHUNK_MASK;
+		
+		long north = unknownRow(s, r - 1, Direction.NORTH);
+		long south = unknownRow(s, r + 1, Direction.SOUTH);
+		return this.travelable[row] & ((unknown >>> 1) | (eastEdge << CHUNK_MASK)
+				| (unknown << 1) | westEdge | north | south);
+	}
+	
+	// Returns the unknown bits of row r of the chunk in slot s, where r may be
+	// one past either edge of the chunk and so in the chunk in direction d.
+	private long unknownRow(int s, int r, Direction d){
+		if( (r & ~CHUNK_MASK) != 0 ){
+			s = this.links[s * DIRECTIONS.length + d.ordinal()];
+			if( s == NONE )
+				return -1L;
+		}
+		return ~this.known[(s << CHUNK_SHIFT) | (r & CHUNK_MASK)];
+	}
+	
+	/**
+	 * stillLeads
+	 * 
+	 * Check a plan worked out on an older copy of the board against the board
+	 * as it is now, walking it from where the ant is. Every square on the way
+	 * must still be travellable and the square it ends at still worth going
+	 * to, holding food for a plan to food or next to an unknown square for a
+	 * scout. A plan that passes gets there, though a closer target may have
+	 * been seen since the copy.
+	 * 
+	 * @param path : the moves of the plan.
+	 * @param food : true if the plan goes to food, false if to scout.
+	 * @return true if the plan can still be walked to what it was made for.
+	 */
+	boolean stillLeads(Path path, boolean food){
+		int index = squareIndex(this.currX, this.currY);
+		if( index == NONE )
+			return false;
+		for( int i = 0; i < path.size(); i++ ){
+			index = neighbor(index, path.peek(i));
+			if( !isTravelable(index) )
+				return false;
+		}
+		if( food )
+			return isSet(this.stocked, index);
+		for( Direction d : DIRECTIONS ){
+			if( !isSet(this.known, neighbor(index, d)) )
 				return true;
 		}
 		return false;
 	}
 	
+	// Sets the map target to a position relative to the hive.
+	public void setTarget(int x, int y){
+		this.targetX = x;
+		this.targetY = y;
+	}
+	
 	// Sets the map target back to the hive.
 	public void cleanTarget(){
 		this.targetX = 0;
 		this.targetY = 0;
 	}
-	
+
 }
@@ -0,0 +1,414 @@
+/**
+ * Class: Clusters
+ * Author: Matthew Dailey
+ * 
+ * A coarse map of a Board for planning long routes, in the style of HPA*.
+ * Each chunk is split into square clusters CLUSTER_WIDTH squares wide. Where
+ * travellable squares line up on both sides of the border between two
+ * clusters there is an entrance, and one square on each side of it becomes a
+ * node of the coarse map, two for wide entrances. The distances between the
+ * nodes of a cluster, going only through the cluster, are searched once and
+ * kept.
+ * 
+ * A route is planned on the coarse map: from the start to the nodes of its
+ * cluster, between nodes across clusters and from the nodes of the end's
+ * cluster to the end. Then each hop is filled in with a search of one
+ * cluster. Either way only a few hundred squares are searched at a time, so
+ * a route across a large map costs about the number of clusters it crosses
+ * rather than the number of squares near it. The route found can be a few
+ * moves longer than the shortest.
+ * 
+ * Like a DistanceField the coarse map follows the board's change log. A
+ * square that changed travellability only changes the cluster it is in and,
+ * on a border, the cluster across it, so only those are searched again the
+ * next time a route is planned.
+ */
+
+import java.util.Arrays;
+
+import ants.*;
+
+public class Clusters {
+	static final int CLUSTER_SHIFT = 4; // Log2 of the width of a cluster.
+	static final int CLUSTER_WIDTH = 1 << CLUSTER_SHIFT; // Width of a cluster.
+	private static final int CLUSTER_MASK = CLUSTER_WIDTH - 1; // Mask of a cluster column or row.
+	private static final int SIDE_SHIFT = Board.CHUNK_SHIFT - CLUSTER_SHIFT; // Log2 of clusters along a chunk.
+	private static final int SIDE_MASK = (1 << SIDE_SHIFT) - 1;
+	private static final int CLUSTERS_SHIFT = 2 * SIDE_SHIFT; // Log2 of clusters in a chunk.
+	private static final int SQUARES = CLUSTER_WIDTH * CLUSTER_WIDTH; // Squares in a cluster.
+	private static final int WIDE = 6; // Entrances at least this wide get a node at each end.
+	
+	private final Board board;	// Board the clusters are on.
+	private int epoch;			// Epoch of the board's change log the clusters have seen, -1 for none.
+	private int applied;		// Number of entries of the change log applied so far.
+	private long[] dirty;		// Bit set for each cluster whose nodes are out of date.
+	
+	private int[][] nodes;		// Squares of the nodes of each cluster.
+	private byte[][] exits;		// Directions out of the cluster from each node, a bit per ordinal.
+	private int[][] costs;		// Distance between each pair of nodes of a cluster, i * count + j.
+	private int[] counts;		// Number of nodes of each cluster.
+	
+	private int[] parent;		// Node before each node in the coarse route being searched.
+	private int[] local;		// Distance of each square of a cluster in a cluster search.
+	private int[] queue;		// Squares waiting to be expanded by a cluster search.
+	private int[] hops;			// Nodes of the coarse route found, end first.
+	private int[] last;			// Distance from the end to each node of its cluster.
+	private long expanded;		// Nodes and squares expanded by route searches so far.
+	
+	/**
+	 * Clusters
+	 * 
+	 * @param board : board to plan routes on. Nothing is searched until the
+	 * first route.
+	 */
+	public Clusters(Board board){
+		this.board = board;
+		this.epoch = -1;
+		this.dirty = new long[0];
+		this.nodes = new int[0][];
+		this.exits = new byte[0][];
+		this.costs = new int[0][];
+		this.counts = new int[0];
+		this.parent = new int[0];
+		this.local = new int[SQUARES];
+		this.queue = new int[SQUARES];
+		this.hops = new int[16];
+		// Nodes are on the border of a cluster, at most one for each square.
+		this.last = new int[4 * CLUSTER_WIDTH];
+	}
+	
+	// Returns the number of nodes and squares route searches have expanded.
+	long expanded(){
+		return this.expanded;
+	}
+	
+	// Returns the cluster a square is in.
+	static int cluster(int square){
+		int slot = square >>> (2 * Board.CHUNK_SHIFT);
+		int row = (square >>> (Board.CHUNK_SHIFT + CLUSTER_SHIFT)) & SIDE_MASK;
+		int column = (square >>> CLUSTER_SHIFT) & SIDE_MASK;
+		return (slot << CLUSTERS_SHIFT) | (row << SIDE_SHIFT) | column;
+	}
+	
+	// Returns the square at a row and column within a cluster.
+	private static int square(int cluster, int row, int column){
+		int slot = cluster >>> CLUSTERS_SHIFT;
+		row |= ((cluster >>> SIDE_SHIFT) & SIDE_MASK) << CLUSTER_SHIFT;
+		column |= (cluster & SIDE_MASK) << CLUSTER_SHIFT;
+		return (slot << (2 * Board.CHUNK_SHIFT)) | (row << Board.CHUNK_SHIFT) | column;
+	}
+	
+	// Returns the index of a square within its cluster.
+	private static int local(int square){
+		return (((square >>> Board.CHUNK_SHIFT) & CLUSTER_MASK) << CLUSTER_SHIFT)
+				| (square & CLUSTER_MASK);
+	}
+	
+	// Returns the index of the square among the nodes of the cluster or -1.
+	private int node(int cluster, int square){
+		for( int i = 0; i < this.counts[cluster]; i++ )
+			if( this.nodes[cluster][i] == square )
+				return i;
+		return -1;
+	}
+	
+	/**
+	 * route
+	 * 
+	 * Find a route from the start square to the end square on the coarse map
+	 * and write it into the path.
+	 * 
+	 * @param space : search space to search the coarse map in.
+	 * @return true if there is a route.
+	 */
+	boolean route(int start, int end, SearchSpace space, Path path){
+		update();
+		int endX = this.board.squareX(end);
+		int endY = this.board.squareY(end);
+		int goal = cluster(end);
+		if( this.parent.length < this.board.squares() )
+			this.parent = new int[this.board.squares()];
+		space.ensureCapacity(this.board.squares());
+		space.begin();
+		
+		// Distances from the end to the nodes of its cluster, for the last hop.
+		search(goal, end, Board.NONE);
+		for( int i = 0; i < this.counts[goal]; i++ )
+			this.last[i] = this.local[local(this.nodes[goal][i])];
+		
+		int left = manhattan(start, endX, endY);
+		space.open(start, 0, SearchSpace.NO_PRED, left, left);
+		this.parent[start] = Board.NONE;
+		while( !space.isOpenEmpty() ){
+			int square = space.pollOpen();
+			// Nodes are opened again when a shorter way is found, skip the old entries.
+			if( space.isClosed(square) )
+				continue;
+			space.close(square);
+			this.expanded++;
+			if( square == end )
+				return refine(start, end, path);
+			
+			int cluster = cluster(square);
+			int dist = space.dist(square);
+			int i = node(cluster, square);
+			if( square == start ){
+				// The start need not be a node, search its cluster for the way
+				// to each node and to the end if it is in the same cluster.
+				search(cluster, start, Board.NONE);
+				for( int j = 0; j < this.counts[cluster]; j++ )
+					open(space, square, this.nodes[cluster][j],
+							dist + this.local[local(this.nodes[cluster][j])], endX, endY);
+				if( cluster == goal )
+					open(space, square, end, dist + this.local[local(end)], endX, endY);
+			} else if( i >= 0 ){
+				for( int j = 0; j < this.counts[cluster]; j++ )
+					open(space, square, this.nodes[cluster][j],
+							dist + this.costs[cluster][i * this.counts[cluster] + j], endX, endY);
+				if( cluster == goal )
+					open(space, square, end, dist + this.last[i], endX, endY);
+			}
+			if( i >= 0 ){
+				// Step across the entrances of the node to the nodes beside it.
+				for( Direction d : Board.DIRECTIONS )
+					if( (this.exits[cluster][i] & (1 << d.ordinal())) != 0 )
+						open(space, square, this.board.neighbor(square, d), dist + 1, endX, endY);
+			}
+		}
+		return false;
+	}
+	
+	// Reach a node of the coarse map if the distance is shorter than any so far.
+	private void open(SearchSpace space, int from, int square, int dist, int endX, int endY){
+		if( dist >= SearchSpace.UNREACHED || space.isClosed(square) || dist >= space.dist(square) )
+			return;
+		int left = manhattan(square, endX, endY);
+		space.open(square, dist, SearchSpace.NO_PRED, dist + left, left);
+		this.parent[square] = from;
+	}
+	
+	// Returns the number of moves from the square to the position if there
+	// were no walls.
+	private int manhattan(int square, int x, int y){
+		return Math.abs(this.board.squareX(square) - x) + Math.abs(this.board.squareY(square) - y);
+	}
+	
+	/**
+	 * refine
+	 * 
+	 * Write the moves of the coarse route found to the end into the path,
+	 * filling in each hop within a cluster with a search of the cluster.
+	 * 
+	 * @return true.
+	 */
+	private boolean refine(int start, int end, Path path){
+		int count = 0;
+		for( int square = end; square != Board.NONE; square = this.parent[square] ){
+			if( count == this.hops.length )
+				this.hops = Arrays.copyOf(this.hops, count * 2);
+			this.hops[count++] = square;
+		}
+		path.clear();
+		for( int i = count - 1; i > 0; i-- ){
+			int from = this.hops[i];
+			int to = this.hops[i - 1];
+			int cluster = cluster(from);
+			if( cluster != cluster(to) ){
+				// Hops between clusters are a single step across an entrance.
+				for( Direction d : Board.DIRECTIONS )
+					if( this.board.neighbor(from, d) == to )
+						path.add(d);
+				continue;
+			}
+			// Search back from the far end of the hop then walk down the distances.
+			search(cluster, to, from);
+			while( from != to ){
+				int dist = this.local[local(from)];
+				for( Direction d : Board.DIRECTIONS ){
+					int next = this.board.neighbor(from, d);
+					if( next != Board.NONE && cluster(next) == cluster
+							&& this.local[local(next)] == dist - 1 ){
+						path.add(d);
+						from = next;
+						break;
+					}
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * search
+	 * 
+	 * Breadth first search of the travellable squares of one cluster from a
+	 * square in it, leaving the distance of each square of the cluster in
+	 * local, UNREACHED if it cannot be reached without leaving the cluster.
+	 * 
+	 * @param stop : square to stop at once it is reached, NONE to search the
+	 * whole cluster. Every square closer than it has its distance by then.
+	 */
+	private void search(int cluster, int from, int stop){
+		Arrays.fill(this.local, SearchSpace.UNREACHED);
+		int head = 0;
+		int tail = 0;
+		this.local[local(from)] = 0;
+		this.queue[tail++] = from;
+		while( head < tail ){
+			int square = this.queue[head++];
+			int next = this.local[local(square)] + 1;
+			this.expanded++;
+			for( Direction d : Board.DIRECTIONS ){
+				int neighbor = this.board.neighbor(square, d);
+				if( neighbor == Board.NONE || cluster(neighbor) != cluster
+						|| !this.board.isTravelable(neighbor) || this.local[local(neighbor)] <= next )
+					continue;
+				this.local[local(neighbor)] = next;
+				if( neighbor == stop )
+					return;
+				this.queue[tail++] = neighbor;
+			}
+		}
+	}
+	
+	/**
+	 * update
+	 * 
+	 * Bring the clusters up to date with the board, marking the clusters
+	 * around the squares that changed since the last update dirty and
+	 * finding the nodes of every dirty cluster again. Every cluster is dirty
+	 * the first time or when the board dropped its change log.
+	 */
+	private void update(){
+		int clusters = this.board.squares() >>> (2 * CLUSTER_SHIFT);
+		if( clusters > this.counts.length ){
+			int old = this.counts.length;
+			this.nodes = Arrays.copyOf(this.nodes, clusters);
+			this.exits = Arrays.copyOf(this.exits, clusters);
+			this.costs = Arrays.copyOf(this.costs, clusters);
+			this.counts = Arrays.copyOf(this.counts, clusters);
+			this.dirty = Arrays.copyOf(this.dirty, (clusters + 63) >>> 6);
+			for( int c = old; c < clusters; c++ )
+				markDirty(c);
+		}
+		if( this.epoch != this.board.epoch() ){
+			this.epoch = this.board.epoch();
+			this.applied = this.board.changes();
+			Arrays.fill(this.dirty, -1L);
+		}
+		int changes = this.board.changes();
+		for( ; this.applied < changes; this.applied++ ){
+			int square = this.board.changed(this.applied);
+			markDirty(cluster(square));
+			// A square on a border also changes the entrances across it.
+			for( Direction d : Board.DIRECTIONS ){
+				int neighbor = this.board.neighbor(square, d);
+				if( neighbor != Board.NONE )
+					markDirty(cluster(neighbor));
+			}
+		}
+		
+		for( int w = 0; w < this.dirty.length; w++ ){
+			for( long bits = this.dirty[w]; bits != 0; bits &= bits - 1 ){
+				int cluster = (w << 6) | Long.numberOfTrailingZeros(bits);
+				if( cluster < clusters )
+					build(cluster);
+			}
+			this.dirty[w] = 0;
+		}
+	}
+	
+	// Mark a cluster as needing its nodes found again.
+	private void markDirty(int cluster){
+		this.dirty[cluster >>> 6] |= 1L << cluster;
+	}
+	
+	/**
+	 * build
+	 * 
+	 * Find the nodes of a cluster along each of its borders and the
+	 * distances between them within the cluster.
+	 */
+	private void build(int cluster){
+		this.counts[cluster] = 0;
+		for( Direction d : Board.DIRECTIONS )
+			findEntrances(cluster, d);
+		
+		int count = this.counts[cluster];
+		if( this.costs[cluster] == null || this.costs[cluster].length < count * count )
+			this.costs[cluster] = new int[Math.max(16, count * count)];
+		for( int i = 0; i < count; i++ ){
+			search(cluster, this.nodes[cluster][i], Board.NONE);
+			for( int j = 0; j < count; j++ )
+				this.costs[cluster][i * count + j] = this.local[local(this.nodes[cluster][j])];
+		}
+	}
+	
+	/**
+	 * findEntrances
+	 * 
+	 * Add a node for each entrance on the border of the cluster facing the
+	 * input direction: a run of travellable squares along the border each
+	 * with a travellable square across it. Narrow entrances get a node in the
+	 * middle and wide ones a node at each end. The cluster across the border
+	 * finds the same entrances in the same order, so the nodes on both sides
+	 * line up.
+	 */
+	private void findEntrances(int cluster, Direction d){
+		int run = 0;
+		for( int i = 0; i <= CLUSTER_WIDTH; i++ ){
+			boolean open = false;
+			int square = Board.NONE;
+			if( i < CLUSTER_WIDTH ){
+				square = border(cluster, d, i);
+				int across = this.board.neighbor(square, d);
+				open = this.board.isTravelable(square) && across != Board.NONE
+						&& this.board.isTravelable(across);
+			}
+			if( open ){
+				run++;
+				continue;
+			}
+			if( run >= WIDE ){
+				addNode(cluster, border(cluster, d, i - run), d);
+				addNode(cluster, border(cluster, d, i - 1), d);
+			} else if( run > 0 ){
+				addNode(cluster, border(cluster, d, i - run + (run - 1) / 2), d);
+			}
+			run = 0;
+		}
+	}
+	
+	// Returns the i-th square along the border of the cluster facing d.
+	private static int border(int cluster, Direction d, int i){
+		switch( d ){
+		case NORTH:
+			return square(cluster, 0, i);
+		case SOUTH:
+			return square(cluster, CLUSTER_MASK, i);
+		case WEST:
+			return square(cluster, i, 0);
+		default:
+			return square(cluster, i, CLUSTER_MASK);
+		}
+	}
+	
+	// Add a square as a node of the cluster with an exit in direction d, or
+	// just the exit if it is already a node from another border.
+	private void addNode(int cluster, int square, Direction d){
+		int i = node(cluster, square);
+		if( i < 0 ){
+			i = this.counts[cluster]++;
+			if( this.nodes[cluster] == null || this.nodes[cluster].length == i ){
+				int capacity = Math.max(8, i * 2);
+				this.nodes[cluster] = this.nodes[cluster] == null ? new int[capacity]
+						: Arrays.copyOf(this.nodes[cluster], capacity);
+				this.exits[cluster] = this.exits[cluster] == null ? new byte[capacity]
+						: Arrays.copyOf(this.exits[cluster], capacity);
+			}
+			this.nodes[cluster][i] = square;
+			this.exits[cluster][i] = 0;
+		}
+		this.exits[cluster][i] |= 1 << d.ordinal();
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * Class: DistanceField
+ * Author: Matthew Dailey
+ * 
+ * The distance of every square of a Board from one root square, kept up to
+ * date as the board changes rather than searched again from scratch.
+ * 
+ * Ants learn about the board a few squares a turn, and a square becoming
+ * travellable or blocked only changes the distances of the squares whose
+ * shortest path runs through it. The board keeps a log of the squares whose
+ * travellability changed and when the field is next used only those are
+ * repaired, in the style of LPA* and D* Lite:
+ * 
+ * 	- squares whose path to the root went through a square that is now
+ * 	  blocked are cut off, along with every square whose path went through them.
+ * 	- each cut off or newly travellable square takes the best distance of its
+ * 	  neighbours plus one.
+ * 	- those squares are expanded in order of distance, lowering the distance
+ * 	  of each neighbour they give a shorter path to, until nothing improves.
+ * 
+ * The work is proportional to the number of squares whose distance changed.
+ * Moving the root is a different matter. The board is a grid, so when the
+ * root moves one step every distance changes by exactly one and the field is
+ * searched again. Fields are best rooted at squares that stay put, like the
+ * hive or a target, with the moving ant reading its distance from the field.
+ */
+
+import java.util.Arrays;
+
+import ants.*;
+
+public class DistanceField {
+	private final Board board;	// Board the distances are measured on.
+	private int root;			// Square the distances are from.
+	private int epoch;			// Epoch of the board's change log the field has seen, -1 for none.
+	private int applied;		// Number of entries of the change log repaired so far.
+	
+	private int[] dist;			// Distance of each square from the root.
+	private byte[] pred;		// Ordinal of the direction from each square toward the root.
+	private int[] mark;			// Generation in which each square was last marked dirty.
+	private int generation;		// Generation of the current repair.
+	private int[] queue;		// Squares waiting to be expanded or cut.
+	private int[] dirty;		// Squares to be given a new distance this repair.
+	private int dirtyCount;		// Number of dirty squares.
+	private long[] seeds;		// Dirty squares to expand, (distance << 32) | square.
+	private long expanded;		// Squares expanded by searches and repairs so far.
+	
+	/**
+	 * DistanceField
+	 * 
+	 * @param board : board to measure distances on. Nothing is searched until
+	 * the first update.
+	 */
+	public DistanceField(Board board){
+		this.board = board;
+		this.root = Board.NONE;
+		this.epoch = -1;
+		this.dist = new int[0];
+		this.pred = new byte[0];
+		this.mark = new int[0];
+		this.queue = new int[0];
+		this.dirty = new int[0];
+		this.seeds = new long[0];
+	}
+	
+	// Returns the number of squares searches and repairs have expanded so far.
+	long expanded(){
+		return this.expanded;
+	}
+	
+	// Returns the square the distances are from.
+	int root(){
+		return this.root;
+	}
+	
+	// Returns the distance of the square from the root or UNREACHED.
+	int dist(int square){
+		return square >= 0 && square < this.dist.length ? this.dist[square] : SearchSpace.UNREACHED;
+	}
+	
+	// Returns the ordinal of the direction from the square toward the root,
+	// or NO_PRED for the root and unreached squares.
+	byte pred(int square){
+		return square >= 0 && square < this.pred.length ? this.pred[square] : SearchSpace.NO_PRED;
+	}
+	
+	/**
+	 * update
+	 * 
+	 * Bring the distances up to date with the board for the input root,
+	 * repairing around the squares that changed since the last update if the
+	 * root is the same and searching from scratch otherwise.
+	 */
+	void update(int root){
+		ensureCapacity(this.board.squares());
+		if( root != this.root || this.epoch != this.board.epoch() ){
+			rebuild(root);
+			return;
+		}
+		if( this.applied == this.board.changes() )
+			return;
+		repair();
+	}
+	
+	// Make room for every square of the board, new squares are unreached.
+	private void ensureCapacity(int squares){
+		if( squares <= this.dist.length )
+			return;
+		int old = this.dist.length;
+		this.dist = Arrays.copyOf(this.dist, squares);
+		this.pred = Arrays.copyOf(this.pred, squares);
+		this.mark = Arrays.copyOf(this.mark, squares);
+		Arrays.fill(this.dist, old, squares, SearchSpace.UNREACHED);
+		Arrays.fill(this.pred, old, squares, SearchSpace.NO_PRED);
+		this.queue = new int[squares];
+		// A square is dirty at most once a repair, so these never grow in one.
+		this.dirty = Arrays.copyOf(this.dirty, squares);
+		this.seeds = new long[squares];
+	}
+	
+	/**
+	 * rebuild
+	 * 
+	 * Forget the old distances and search the whole board from the root.
+	 */
+	private void rebuild(int root){
+		this.root = root;
+		this.epoch = this.board.epoch();
+		this.applied = this.board.changes();
+		Arrays.fill(this.dist, SearchSpace.UNREACHED);
+		Arrays.fill(this.pred, SearchSpace.NO_PRED);
+		if( !this.board.isTravelable(root) )
+			return;
+		
+		// Every move costs one turn so a breadth first search finds the distances.
+		int head = 0;
+		int tail = 0;
+		this.dist[root] = 0;
+		this.queue[tail++] = root;
+		while( head < tail ){
+			int square = this.queue[head++];
+			tail = expand(square, tail);
+		}
+	}
+	
+	/**
+	 * repair
+	 * 
+	 * Fix the distances around the squares in the board's change log since
+	 * the last update.
+	 */
+	private void repair(){
+		int changes = this.board.changes();
+		this.generation++;
+		if( this.generation == 0 ){
+			// The generation wrapped around so old marks could look current.
+			Arrays.fill(this.mark, 0);
+			this.generation = 1;
+		}
+		this.dirtyCount = 0;
+		
+		// Cut off the squares whose path went through a square now blocked,
+		// and mark the squares now open to be given a distance.
+		for( int i = this.applied; i < changes; i++ ){
+			int square = this.board.changed(i);
+			if( this.board.isTravelable(square) )
+				markDirty(square);
+			else if( this.dist[square] != SearchSpace.UNREACHED )
+				cut(square);
+		}
+		this.applied = changes;
+		
+		// Give each dirty square the best distance its neighbours offer.
+		int count = 0;
+		if( this.seeds.length < this.dirtyCount )
+			this.seeds = new long[Math.max(this.dirtyCount, this.seeds.length * 2)];
+		for( int i = 0; i < this.dirtyCount; i++ ){
+			int square = this.dirty[i];
+			if( !this.board.isTravelable(square) )
+				continue;
+			if( square == this.root ){
+				this.dist[square] = 0;
+				this.pred[square] = SearchSpace.NO_PRED;
+			} else {
+				settle(square);
+			}
+			if( this.dist[square] != SearchSpace.UNREACHED )
+				this.seeds[count++] = ((long)this.dist[square] << 32) | square;
+		}
+		Arrays.sort(this.seeds, 0, count);
+		
+		// Expand the seeds and the squares they improve in order of distance.
+		// The seeds are sorted and the queue only ever grows in distance so
+		// taking the closer of the two fronts keeps the order.
+		int head = 0;
+		int tail = 0;
+		int next = 0;
+		while( next < count || head < tail ){
+			int square;
+			if( head == tail || (next < count
+					&& (int)(this.seeds[next] >>> 32) <= this.dist[this.queue[head]]) )
+				square = (int)this.seeds[next++];
+			else
+				square = this.queue[head++];
+			tail = expand(square, tail);
+		}
+	}
+	
+	/**
+	 * cut
+	 * 
+	 * Mark the square and every square whose path to the root goes through
+	 * it unreached and dirty.
+	 */
+	private void cut(int square){
+		int head = 0;
+		int tail = 0;
+		this.dist[square] = SearchSpace.UNREACHED;
+		this.pred[square] = SearchSpace.NO_PRED;
+		markDirty(square);
+		this.queue[tail++] = square;
+		while( head < tail ){
+			int parent = this.queue[head++];
+			for( Direction d : Board.DIRECTIONS ){
+				// Children of the square are the neighbours pointing back at it.
+				int child = this.board.neighbor(parent, d);
+				if( child == Board.NONE || this.dist[child] == SearchSpace.UNREACHED
+						|| this.pred[child] != Board.OPPOSITE[d.ordinal()] )
+					continue;
+				this.dist[child] = SearchSpace.UNREACHED;
+				this.pred[child] = SearchSpace.NO_PRED;
+				markDirty(child);
+				this.queue[tail++] = child;
+			}
+		}
+	}
+	
+	// Add the square to the dirty squares once per repair.
+	private void markDirty(int square){
+		if( this.mark[square] == this.generation )
+			return;
+		this.mark[square] = this.generation;
+		if( this.dirtyCount == this.dirty.length )
+			this.dirty = Arrays.copyOf(this.dirty, Math.max(16, this.dirty.length * 2));
+		this.dirty[this.dirtyCount++] = square;
+	}
+	
+	// Set the square's distance to one more than its closest neighbour.
+	private void settle(int square){
+		int best = SearchSpace.UNREACHED;
+		byte toward = SearchSpace.NO_PRED;
+		for( Direction d : Board.DIRECTIONS ){
+			int neighbor = this.board.neighbor(square, d);
+			if( neighbor == Board.NONE || !this.board.isTravelable(neighbor) )
+				continue;
+			if( this.dist[neighbor] + 1 < best ){
+				best = this.dist[neighbor] + 1;
+				toward = (byte)d.ordinal();
+			}
+		}
+		this.dist[square] = best;
+		this.pred[square] = toward;
+	}
+	
+	// Lower the distance of the square's neighbours it gives a shorter path
+	// to and queue them, returns the new tail of the queue.
+	private int expand(int square, int tail){
+		this.expanded++;
+		int next = this.dist[square] + 1;
+		for( Direction d : Board.DIRECTIONS ){
+			int neighbor = this.board.neighbor(square, d);
+			if( this.board.isTravelable(neighbor) && this.dist[neighbor] > next ){
+				this.dist[neighbor] = next;
+				this.pred[neighbor] = Board.OPPOSITE[d.ordinal()];
+				this.queue[tail++] = neighbor;
+			}
+		}
+		return tail;
+	}
+}
@@ -0,0 +1,369 @@
+/**
+ * Class: Game
+ * Author: Matthew Dailey
+ * 
+ * One game of ants played on a GameMap without the challenge harness. All
+ * ants start at the hive. Every turn is played in phases:
+ * 
+ * 	- send: every ant is asked for its message.
+ * 	- exchange: every ant receives the messages of the other ants on its square.
+ * 	- decide: every ant is shown its surroundings and chooses an action.
+ * 	- resolve: the actions are carried out on the map in ant order.
+ * 
+ * Ants only look at their own state and the map in the first three phases
+ * and only resolve changes the map, so the ants of one phase can be run in
+ * any order or at the same time as long as each phase finishes before the
+ * next starts. turn() plays the phases one after the other, turn(pool)
+ * splits each phase into batches of ants over a fork join pool and play()
+ * runs every ant on its own thread, virtual where the JVM has them, with
+ * the threads meeting at a barrier between phases.
+ * 
+ * Moves into walls and gathering from empty squares do nothing, dropping
+ * off food only counts at the hive.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ants.*;
+
+public class Game {
+	private static final int BATCH = 64;	// Most ants a fork join task plays alone.
+	
+	private final GameMap world;		// The map being played on.
+	private final Ant[] ants;			// The ants playing.
+	private final GameMap.View[] views;	// Each ant's view of its square.
+	private final int[] x;				// East-west position of each ant.
+	private final int[] y;				// North-south position of each ant.
+	private final boolean[] carrying;	// True if the ant is holding food.
+	private final Action[] actions;		// Action each ant chose this turn.
+	private final byte[][] messages;	// Message each ant sent this turn.
+	private final long[] squares;		// Ants sorted by square, (square << 32) | ant.
+	private final long[] decideNanos;	// Time each ant has spent in getAction.
+	private int turns;					// Number of turns played.
+	private long collected;				// Food dropped off at the hive.
+	
+	// Actions for a move in each direction, indexed by Direction.ordinal().
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final Action[] MOVES = new Action[DIRECTIONS.length];
+	static {
+		for( Direction d : DIRECTIONS )
+			MOVES[d.ordinal()] = Action.move(d);
+	}
+	
+	/**
+	 * Game
+	 * 
+	 * @param world : map to play on, it is changed as food is gathered.
+	 * @param ants : the ants to play, all start at the hive.
+	 */
+	public Game(GameMap world, Ant[] ants){
+		this.world = world;
+		this.ants = ants;
+		int count = ants.length;
+		this.views = new GameMap.View[count];
+		this.x = new int[count];
+		this.y = new int[count];
+		this.carrying = new boolean[count];
+		this.actions = new Action[count];
+		this.messages = new byte[count][];
+		this.squares = new long[count];
+		this.decideNanos = new long[count];
+		for( int i = 0; i < count; i++ ){
+			this.x[i] = world.hiveX();
+			this.y[i] = world.hiveY();
+			this.views[i] = world.new View(this.x[i], this.y[i]);
+		}
+		world.addAnts(world.hiveX(), world.hiveY(), count);
+	}
+	
+	// Returns the number of ants playing.
+	public int size(){
+		return this.ants.length;
+	}
+	
+	// Returns the i-th ant playing.
+	public Ant ant(int i){
+		return this.ants[i];
+	}
+	
+	// Play a whole turn, one phase after the other.
+	public void turn(){
+		for( int i = 0; i < this.ants.length; i++ )
+			send(i);
+		group();
+		for( int i = 0; i < this.ants.length; i++ )
+			exchange(i);
+		for( int i = 0; i < this.ants.length; i++ )
+			decide(i);
+		resolve();
+	}
+	
+	/**
+	 * turn
+	 * 
+	 * Play a whole turn with the send, exchange and decide phases split into
+	 * batches of ants over the pool.
+	 */
+	public void turn(ForkJoinPool pool){
+		pool.invoke(new Phase(Phase.SEND, 0, this.ants.length));
+		group();
+		pool.invoke(new Phase(Phase.EXCHANGE, 0, this.ants.length));
+		pool.invoke(new Phase(Phase.DECIDE, 0, this.ants.length));
+		resolve();
+	}
+	
+	/**
+	 * play
+	 * 
+	 * Play turns with each ant on its own thread from the factory. The ants
+	 * wait for each other at a barrier after each phase, and the last to
+	 * arrive groups the ants after the send phase and resolves the actions
+	 * after the decide phase. If an ant throws, the barrier is broken so the
+	 * other threads stop, and the exception is rethrown once all are done.
+	 * 
+	 * @param threads : where the ants' threads come from, see virtualThreads().
+	 */
+	public void play(final int turns, ThreadFactory threads) throws InterruptedException {
+		final CyclicBarrier barrier = new CyclicBarrier(this.ants.length, new Runnable(){
+			private int phase; // Phases finished, three a turn.
+			
+			public void run(){
+				switch( this.phase++ % 3 ){
+				case 0:
+					group();
+					break;
+				case 2:
+					resolve();
+					break;
+				}
+			}
+		});
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] running = new Thread[this.ants.length];
+		for( int i = 0; i < running.length; i++ ){
+			final int ant = i;
+			running[i] = threads.newThread(new Runnable(){
+				public void run(){
+					try {
+						for( int t = 0; t < turns; t++ ){
+							send(ant);
+							barrier.await();
+							exchange(ant);
+							barrier.await();
+							decide(ant);
+							barrier.await();
+						}
+					} catch( BrokenBarrierException e ){
+						// Another ant failed, its exception is the one reported.
+					} catch( InterruptedException e ){
+						failure.compareAndSet(null, e);
+						barrier.reset();
+					} catch( RuntimeException | Error e ){
+						failure.compareAndSet(null, e);
+						barrier.reset();
+					}
+				}
+			});
+			running[i].start();
+		}
+		for( Thread thread : running )
+			thread.join();
+		if( failure.get() != null )
+			throw new IllegalStateException("an ant failed", failure.get());
+	}
+	
+	/**
+	 * virtualThreads
+	 * 
+	 * @return a factory of virtual threads if the JVM has them (Java 21 on),
+	 * otherwise of platform threads. Looked up by reflection so the game
+	 * still builds and runs on older JVMs. Falling back to one platform
+	 * thread per ant is reported on stderr, since thousands of ants then
+	 * mean thousands of OS threads.
+	 */
+	public static ThreadFactory virtualThreads(){
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory)Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory").invoke(builder);
+		} catch( ReflectiveOperationException e ){
+			System.err.println("Game: no virtual threads on Java "
+					+ System.getProperty("java.specification.version")
+					+ ", playing each ant on a platform thread");
+			return new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread thread = new Thread(r);
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+		}
+	}
+	
+	/**
+	 * One phase of a turn for a range of ants, split in half until the
+	 * halves are small enough to play on one thread.
+	 */
+	private final class Phase extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		static final int SEND = 0;
+		static final int EXCHANGE = 1;
+		static final int DECIDE = 2;
+		
+		private final int phase;
+		private final int from;
+		private final int to;
+		
+		Phase(int phase, int from, int to){
+			this.phase = phase;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute(){
+			if( this.to - this.from > BATCH ){
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new Phase(this.phase, this.from, middle),
+						new Phase(this.phase, middle, this.to));
+				return;
+			}
+			for( int i = this.from; i < this.to; i++ ){
+				switch( this.phase ){
+				case SEND:
+					send(i);
+					break;
+				case EXCHANGE:
+					exchange(i);
+					break;
+				default:
+					decide(i);
+				}
+			}
+		}
+	}
+	
+	// Send phase for one ant.
+	public void send(int ant){
+		this.messages[ant] = this.ants[ant].send();
+	}
+	
+	/**
+	 * group
+	 * 
+	 * Sort the ants by square so the ants on a square are next to each
+	 * other. Must be called after the send phase and before exchanges.
+	 */
+	public void group(){
+		for( int i = 0; i < this.ants.length; i++ )
+			this.squares[i] = ((long)(this.y[i] * this.world.width() + this.x[i]) << 32) | i;
+		Arrays.sort(this.squares);
+	}
+	
+	/**
+	 * exchange
+	 * 
+	 * Exchange phase for one ant, it receives the message of every other ant
+	 * on its square.
+	 */
+	public void exchange(int ant){
+		long square = (long)(this.y[ant] * this.world.width() + this.x[ant]) << 32;
+		// Find the first ant on the square then walk along the ants there.
+		int i = Arrays.binarySearch(this.squares, square);
+		for( i = i < 0 ? -i - 1 : i; i < this.squares.length; i++ ){
+			if( (this.squares[i] & 0xFFFFFFFF00000000L) != square )
+				break;
+			int other = (int)this.squares[i];
+			if( other != ant && this.messages[other] != null )
+				this.ants[ant].receive(this.messages[other]);
+		}
+	}
+	
+	// Decide phase for one ant, it chooses its action for the turn.
+	public void decide(int ant){
+		long start = System.nanoTime();
+		this.actions[ant] = this.ants[ant].getAction(this.views[ant]);
+		this.decideNanos[ant] += System.nanoTime() - start;
+	}
+	
+	/**
+	 * resolve
+	 * 
+	 * Carry out the actions the ants chose, in ant order, then start the next
+	 * turn.
+	 */
+	public void resolve(){
+		for( int i = 0; i < this.ants.length; i++ ){
+			Action action = this.actions[i];
+			if( action == null || action.equals(Action.HALT) ){
+				continue;
+			} else if( action.equals(Action.GATHER) ){
+				if( !this.carrying[i] && this.world.takeFood(this.x[i], this.y[i]) )
+					this.carrying[i] = true;
+			} else if( action.equals(Action.DROP_OFF) ){
+				if( this.carrying[i] && this.x[i] == this.world.hiveX()
+						&& this.y[i] == this.world.hiveY() ){
+					this.carrying[i] = false;
+					this.collected++;
+				}
+			} else {
+				move(i, action);
+			}
+			this.actions[i] = null;
+		}
+		this.turns++;
+	}
+	
+	// Move the ant the way the action says if the square is open.
+	private void move(int ant, Action action){
+		Direction d = direction(action);
+		if( d == null )
+			return;
+		int nx = this.x[ant] + (d == Direction.EAST ? 1 : d == Direction.WEST ? -1 : 0);
+		int ny = this.y[ant] + (d == Direction.SOUTH ? 1 : d == Direction.NORTH ? -1 : 0);
+		if( !this.world.isTravelable(nx, ny) )
+			return;
+		this.world.addAnts(this.x[ant], this.y[ant], -1);
+		this.world.addAnts(nx, ny, 1);
+		this.x[ant] = nx;
+		this.y[ant] = ny;
+		this.views[ant].moveTo(nx, ny);
+	}
+	
+	// Returns the direction of a move action, or null if it is not a move.
+	// Actions are compared with equals and then by name in case moves are not
+	// the same objects each time.
+	private static Direction direction(Action action){
+		for( Direction d : DIRECTIONS )
+			if( action.equals(MOVES[d.ordinal()]) )
+				return d;
+		String name = action.toString();
+		for( Direction d : DIRECTIONS )
+			if( name.equals(MOVES[d.ordinal()].toString()) )
+				return d;
+		return null;
+	}
+	
+	// Returns the number of turns played.
+	public int turns(){
+		return this.turns;
+	}
+	
+	// Returns the food dropped off at the hive so far.
+	public long collected(){
+		return this.collected;
+	}
+	
+	// Returns the total time all ants have spent in getAction.
+	public long decideNanos(){
+		long total = 0;
+		for( long nanos : this.decideNanos )
+			total += nanos;
+		return total;
+	}
+}
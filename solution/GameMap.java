@@ -0,0 +1,182 @@
+/**
+ * Class: GameMap
+ * Author: Matthew Dailey
+ * 
+ * A generated game map so boards and ants can be run outside of the
+ * challenge harness, for benchmarks and simulations. The map is a grid of
+ * squares which are either walls or open with some amount of food, with a
+ * wall all the way around the edge and the hive in the middle.
+ * 
+ * Squares are addressed by absolute coordinates with (0,0) in the north-west
+ * corner. Each square has one Tile object that reads the map directly, so
+ * looking at squares never allocates.
+ * 
+ * The same seed, size and densities always give the same map.
+ */
+
+import java.util.Random;
+
+import ants.*;
+
+public class GameMap {
+	private final int width;		// Number of squares east-west.
+	private final int height;		// Number of squares north-south.
+	private final int hiveX;		// East-west position of the hive.
+	private final int hiveY;		// North-south position of the hive.
+	private final boolean[] wall;	// True if the square is a wall, row-major.
+	private final int[] food;		// Amount of food on each square.
+	private final int[] ants;		// Number of ants on each square.
+	private final Square[] squares;	// Tile for each square.
+	
+	/**
+	 * GameMap
+	 * 
+	 * @param width : number of squares east-west.
+	 * @param height : number of squares north-south.
+	 * @param wallDensity : chance between 0 and 1 of an inside square being a wall.
+	 * @param foodDensity : chance between 0 and 1 of an open square having food.
+	 * @param seed : seed for the random generator.
+	 */
+	public GameMap(int width, int height, double wallDensity, double foodDensity, long seed){
+		this.width = width;
+		this.height = height;
+		this.hiveX = width / 2;
+		this.hiveY = height / 2;
+		this.wall = new boolean[width * height];
+		this.food = new int[width * height];
+		this.ants = new int[width * height];
+		this.squares = new Square[width * height];
+		
+		Random rand = new Random(seed);
+		for( int y = 0; y < height; y++ ){
+			for( int x = 0; x < width; x++ ){
+				int i = y * width + x;
+				boolean edge = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+				this.wall[i] = edge || rand.nextDouble() < wallDensity;
+				if( !this.wall[i] && rand.nextDouble() < foodDensity )
+					this.food[i] = 1 + rand.nextInt(9);
+				this.squares[i] = new Square(i);
+			}
+		}
+		// The hive is always open and never has food.
+		int hive = this.hiveY * width + this.hiveX;
+		this.wall[hive] = false;
+		this.food[hive] = 0;
+	}
+	
+	public int width(){
+		return this.width;
+	}
+	
+	public int height(){
+		return this.height;
+	}
+	
+	public int hiveX(){
+		return this.hiveX;
+	}
+	
+	public int hiveY(){
+		return this.hiveY;
+	}
+	
+	// Returns true if the square is on the map and not a wall.
+	public boolean isTravelable(int x, int y){
+		return x >= 0 && y >= 0 && x < this.width && y < this.height
+				&& !this.wall[y * this.width + x];
+	}
+	
+	// Returns the amount of food on the square.
+	public int food(int x, int y){
+		return this.food[y * this.width + x];
+	}
+	
+	// Takes one food from the square, returns false if there was none.
+	public boolean takeFood(int x, int y){
+		int i = y * this.width + x;
+		if( this.food[i] <= 0 )
+			return false;
+		this.food[i]--;
+		return true;
+	}
+	
+	// Returns the total food left on the map.
+	public long totalFood(){
+		long total = 0;
+		for( int f : this.food )
+			total += f;
+		return total;
+	}
+	
+	// Change the number of ants on the square.
+	public void addAnts(int x, int y, int count){
+		this.ants[y * this.width + x] += count;
+	}
+	
+	// Returns the tile for the square.
+	public Tile tile(int x, int y){
+		return this.squares[y * this.width + x];
+	}
+	
+	/**
+	 * View
+	 * 
+	 * The surroundings of one position on the map. A view can be moved so an
+	 * ant can be shown its surroundings every turn with the same object.
+	 */
+	public class View implements Surroundings {
+		int x;	// East-west position the view is from.
+		int y;	// North-south position the view is from.
+		
+		public View(int x, int y){
+			this.x = x;
+			this.y = y;
+		}
+		
+		public void moveTo(int x, int y){
+			this.x = x;
+			this.y = y;
+		}
+		
+		public Tile getCurrentTile(){
+			return tile(this.x, this.y);
+		}
+		
+		public Tile getTile(Direction d){
+			switch( d ){
+			case NORTH:
+				return tile(this.x, this.y - 1);
+			case EAST:
+				return tile(this.x + 1, this.y);
+			case SOUTH:
+				return tile(this.x, this.y + 1);
+			case WEST:
+				return tile(this.x - 1, this.y);
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * One square of the map seen as a Tile.
+	 */
+	private class Square implements Tile {
+		private final int index; // Index of the square in the map arrays.
+		
+		Square(int index){
+			this.index = index;
+		}
+		
+		public int getAmountOfFood(){
+			return food[this.index];
+		}
+		
+		public int getNumAnts(){
+			return ants[this.index];
+		}
+		
+		public boolean isTravelable(){
+			return !wall[this.index];
+		}
+	}
+}
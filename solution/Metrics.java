@@ -0,0 +1,212 @@
+/**
+ * Class: Metrics
+ * Author: Matthew Dailey
+ * 
+ * Counters and histograms of where the ants spend their turns, for the
+ * Simulator and benchmarks: how long getAction takes in each role, how many
+ * squares searches expand, how many routes are not found, how often the
+ * route cache has the route, how many squares combineBoards changes and how
+ * many bytes each message takes.
+ * 
+ * Metrics are only kept with the ants.metrics system property set to true.
+ * It is read once into a constant, so every check of ENABLED on the hot
+ * paths is folded away by the JIT when it is false and costs nothing.
+ * 
+ * Counters are LongAdders so ants on many threads can count at once without
+ * fighting over one cache line. Histograms keep a LongAdder for each bucket
+ * of a log scale in the style of HdrHistogram: values below 8 get a bucket
+ * each and every power of two above is split into 8 buckets, so any value
+ * is placed within an eighth of itself in 488 buckets.
+ * 
+ * Everything made is registered by name so dump and writeCsv can report a
+ * snapshot of all of it.
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Metrics {
+	// True if metrics are kept, set by the ants.metrics system property.
+	public static final boolean ENABLED = Boolean.getBoolean("ants.metrics");
+	
+	private static final List<String> counterNames = new ArrayList<String>();
+	private static final List<LongAdder> counters = new ArrayList<LongAdder>();
+	private static final List<Histogram> histograms = new ArrayList<Histogram>();
+	
+	private Metrics(){
+	}
+	
+	/**
+	 * counter
+	 * 
+	 * @return a new counter registered under the name.
+	 */
+	public static synchronized LongAdder counter(String name){
+		LongAdder counter = new LongAdder();
+		counterNames.add(name);
+		counters.add(counter);
+		return counter;
+	}
+	
+	/**
+	 * histogram
+	 * 
+	 * @param unit : what the values measure, e.g. ns or bytes.
+	 * @return a new histogram registered under the name.
+	 */
+	public static synchronized Histogram histogram(String name, String unit){
+		Histogram histogram = new Histogram(name, unit);
+		histograms.add(histogram);
+		return histogram;
+	}
+	
+	/**
+	 * dump
+	 * 
+	 * Write a snapshot of every counter and histogram as text, one a line.
+	 * Counts taken while the snapshot is written may be missed.
+	 */
+	public static synchronized void dump(Writer out){
+		PrintWriter print = new PrintWriter(out);
+		for( int i = 0; i < counters.size(); i++ )
+			print.println(String.format(Locale.ROOT, "%-28s %d", counterNames.get(i), counters.get(i).sum()));
+		for( Histogram h : histograms ){
+			print.println(String.format(Locale.ROOT,
+					"%-28s n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d %s",
+					h.name, h.count(), h.mean(), h.percentile(0.5), h.percentile(0.9),
+					h.percentile(0.99), h.max(), h.unit));
+		}
+		print.flush();
+	}
+	
+	/**
+	 * writeCsv
+	 * 
+	 * Write a snapshot of every counter and histogram to a CSV file, one
+	 * row each. Counters only fill in the count.
+	 */
+	public static synchronized void writeCsv(String file) throws IOException {
+		PrintWriter print = new PrintWriter(new FileWriter(file));
+		try {
+			print.println("name,unit,count,sum,mean,p50,p90,p99,max");
+			for( int i = 0; i < counters.size(); i++ )
+				print.println(counterNames.get(i) + ",," + counters.get(i).sum() + ",,,,,,");
+			for( Histogram h : histograms ){
+				print.println(String.format(Locale.ROOT, "%s,%s,%d,%d,%.3f,%d,%d,%d,%d",
+						h.name, h.unit, h.count(), h.sum(), h.mean(), h.percentile(0.5),
+						h.percentile(0.9), h.percentile(0.99), h.max()));
+			}
+		} finally {
+			print.close();
+		}
+	}
+	
+	/**
+	 * A histogram of non-negative values in log scale buckets. Values below
+	 * zero are counted as zero.
+	 */
+	public static final class Histogram {
+		private static final int SUB_SHIFT = 3;	// Log2 of buckets per power of two.
+		private static final int SUB = 1 << SUB_SHIFT;
+		private static final int BUCKETS = (Long.SIZE - SUB_SHIFT) << SUB_SHIFT;
+		
+		private final String name;		// Name the histogram is reported under.
+		private final String unit;		// What the values measure.
+		private final LongAdder[] buckets; // Number of values in each bucket.
+		private final LongAdder sum;	// Sum of the values.
+		private final AtomicLong max;	// Largest value.
+		
+		private Histogram(String name, String unit){
+			this.name = name;
+			this.unit = unit;
+			this.buckets = new LongAdder[BUCKETS];
+			for( int i = 0; i < BUCKETS; i++ )
+				this.buckets[i] = new LongAdder();
+			this.sum = new LongAdder();
+			this.max = new AtomicLong();
+		}
+		
+		// Returns the bucket of a value: the value itself below SUB, otherwise
+		// the power of two it is in and its next SUB_SHIFT bits.
+		private static int bucket(long value){
+			if( value < SUB )
+				return (int)value;
+			int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+			int sub = (int)(value >>> (exponent - SUB_SHIFT)) & (SUB - 1);
+			return ((exponent - SUB_SHIFT + 1) << SUB_SHIFT) | sub;
+		}
+		
+		// Returns the smallest value in a bucket.
+		private static long lowest(int bucket){
+			if( bucket < SUB )
+				return bucket;
+			int exponent = (bucket >>> SUB_SHIFT) + SUB_SHIFT - 1;
+			return (long)(SUB | (bucket & (SUB - 1))) << (exponent - SUB_SHIFT);
+		}
+		
+		// Count a value.
+		public void record(long value){
+			value = Math.max(0, value);
+			this.buckets[bucket(value)].increment();
+			this.sum.add(value);
+			long seen = this.max.get();
+			while( value > seen && !this.max.compareAndSet(seen, value) )
+				seen = this.max.get();
+		}
+		
+		// Returns the number of values counted.
+		public long count(){
+			long count = 0;
+			for( LongAdder bucket : this.buckets )
+				count += bucket.sum();
+			return count;
+		}
+		
+		// Returns the sum of the values counted.
+		public long sum(){
+			return this.sum.sum();
+		}
+		
+		// Returns the mean of the values counted, 0 if there are none.
+		public double mean(){
+			long count = count();
+			return count == 0 ? 0 : (double)sum() / count;
+		}
+		
+		// Returns the largest value counted.
+		public long max(){
+			return this.max.get();
+		}
+		
+		/**
+		 * percentile
+		 * 
+		 * @param q : fraction of the values, from 0 to 1.
+		 * @return the largest value of the bucket holding the value q of the
+		 * way through the values counted, no more than the largest value, or
+		 * 0 if there are none.
+		 */
+		public long percentile(double q){
+			long[] counts = new long[BUCKETS];
+			long count = 0;
+			for( int i = 0; i < BUCKETS; i++ ){
+				counts[i] = this.buckets[i].sum();
+				count += counts[i];
+			}
+			long rank = Math.max(1, (long)Math.ceil(q * count));
+			for( int i = 0; i < BUCKETS; i++ ){
+				rank -= counts[i];
+				if( rank <= 0 )
+					return Math.min(max(), i + 1 < BUCKETS ? lowest(i + 1) - 1 : Long.MAX_VALUE);
+			}
+			return 0;
+		}
+	}
+}
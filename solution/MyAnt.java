@@ -19,7 +19,9 @@
  * The waggler is responsible for maintaining an up-to-date map of the world by combining
  * knowledge from returning scouts and gatherers. It is also responsible for assigning jobs
  * to gatherers efficiently so there are no wasted trips to depleted food sources. This is 
- * done using methods from the Board class.
+ * done using methods from the Board class. Gatherers dropping off food wait at the hive
+ * for a turn and the waggler sends all of them to different foods at once, and the other
+ * ants at the hive each claim a different food the waggler offers, see Orders.
  * 
  * The gatherer is responsible for harvesting food. It follows orders from the waggler but
  * has the ability to find a new food source or become a scout if there is ever a miss
@@ -27,16 +29,19 @@
  * 
  * Each ant maintains a copy of its information about the world as an instance of the Board
  * class. Ants gain knowledge about the board by passing their boards to each other when
- * they have an opportunity to send messages. The Gson library is used to serialize
- * the Board.
- *
+ * they have an opportunity to send messages. Boards are sent in the compact binary
+ * format described in WireFormat. Ants playing in one process can share a Blackboard
+ * instead, then every ant knows what the colony knows and messages carry no board.
+ * 
  **/
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Random;
-import java.util.Stack;
+import java.util.concurrent.Future;
 
 import ants.*;
-import com.google.gson.*;
 
 
 public class MyAnt implements Ant{
@@ -45,14 +50,53 @@ public class MyAnt implements Ant{
 	private final int SCOUT_DETERM = 3;
 	//how many steps a scout should explore total
 	private final int SCOUT_TIME = 10; 
+	//how many moves before the end of a plan the next one is worked out ahead
+	private final int LOOKAHEAD = 4;
+	//fewest moves left for the next plan to be worked out in time to be taken
+	private final int LEAD = 2;
+	
+	// The action for a move in each direction, indexed by Direction.ordinal().
+	private static final Action[] MOVES = new Action[Direction.values().length];
+	static {
+		for( Direction d : Direction.values() )
+			MOVES[d.ordinal()] = Action.move(d);
+	}
+	
+	// Metrics of every ant, kept only if Metrics.ENABLED. The getAction times
+	// are indexed by the Role.ordinal() of the role the action was chosen in.
+	private static final Metrics.Histogram[] ACTION_NANOS = new Metrics.Histogram[Role.values().length];
+	static {
+		for( Role r : Role.values() )
+			ACTION_NANOS[r.ordinal()] = Metrics.histogram("getAction." + r.name().toLowerCase(Locale.ROOT), "ns");
+	}
+	private static final Metrics.Histogram MESSAGE_BYTES = Metrics.histogram("send.bytes", "bytes");
 	
 	private Board map;		// Map of the game board.
 	private Role role;		// Type of action the ant will do.
-	private Stack<Direction> plan;  // List of directions to follow.
+	private Path plan;  // List of directions to follow, reused for every plan.
 	private boolean holdingFood;	// true if the ant has food.
 	private int scoutCount;			// The number of turns the ant has been scouting.
 	private int scoutStartIndex;	// Where in the search order the specific ant starts.
 	private Direction scoutLastDir; // The last direction the ant has travelled.
+	private ByteBuffer outbox;		// Reused buffer boards are encoded into.
+	private Board inbox;			// Reused board messages are decoded into.
+	private long id;				// Random id so other ants can tell who sent a message.
+	private Random random;			// Picks random moves, kept so moving allocates nothing.
+	private Peers peers;			// How much of each other's boards we and others have.
+	private Orders orders;			// Orders the waggler gives, or the last one given to us.
+	private byte status;			// What the ant told the others it is doing this turn.
+	private int turn;				// The number of turns the ant has taken.
+	private int orderTurn;			// The turn the ant was last given an order in.
+	private boolean started;		// True if send started this turn's search budget.
+	private boolean resume;			// True if the plan is a route cut short, see routeToTarget.
+	private int resumeX;			// East-west position the cut route goes to.
+	private int resumeY;			// North-south position the cut route goes to.
+	private Blackboard.Reader shared; // Our place on the colony's blackboard, or null.
+	private PlanService planner;	// Works out our next plan ahead of time, or null.
+	private Future<PlanService.Plan> next; // The next plan being worked out, or null.
+	private boolean ahead;			// True if the next plan was started for this plan.
+	private long plansNeeded;		// Plans needed while planning ahead.
+	private long plansReady;		// Of those, plans that were ready and taken.
 	
 	/**
 	 * MyAnt
@@ -61,17 +105,35 @@ public class MyAnt implements Ant{
 	 * and a blank map. 
 	 */
 	public MyAnt(){
+		this(null);
+	}
+	
+	/**
+	 * MyAnt
+	 * 
+	 * Instantiate a new ant sharing what it knows through a blackboard, or
+	 * through messages if it is null.
+	 */
+	public MyAnt(Blackboard blackboard){
 		this.map = new Board(); 
 		this.scoutCount = 0;
-		this.plan = new Stack<Direction>();
+		this.plan = new Path();
 		this.holdingFood = false;
 		this.role = Role.SCOUTING;
+		this.outbox = ByteBuffer.allocate(1024);
+		this.inbox = new Board();
+		this.peers = new Peers();
+		this.orders = new Orders();
+		this.turn = 0;
+		this.orderTurn = -1;
+		this.shared = blackboard == null ? null : blackboard.new Reader();
 		
 		// Set the scoutStartIndex randomly so different ants search in different orders.
-		Random rand = new Random();
-		this.scoutStartIndex = rand.nextInt(map.searchOrder.length);
+		this.random = new Random();
+		this.scoutStartIndex = this.random.nextInt(map.searchOrder.length);
+		this.id = this.random.nextLong();
 	}
-
+	
 	/**
 	 * getAction
 	 * 
@@ -80,33 +142,211 @@ public class MyAnt implements Ant{
 	 * based on its current role.
 	 */
 	public Action getAction(Surroundings surroundings){
-		// update the map
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		Role acting = this.role;
+		
+		// update the map, starting the turn's search budget if send did not
+		if( !this.started )
+			map.newTurn();
+		this.started = false;
 		map.checkSurroundings(surroundings);
+		if( this.shared != null )
+			this.shared.sync(map);
+		
+		// Every message of the turn has been heard so the food offered at the hive
+		// can be settled.
+		if( this.role == Role.WAGGLING )
+			this.orders.settle(map, this.turn);
+		else if( this.status == Orders.FREE && this.orderTurn != this.turn && map.atHive() )
+			claimOffer();
+		this.turn++;
 		
 		// choose a move base on the ants role
+		Action action = Action.HALT;
 		switch(this.role){
 		case WAGGLING:
-			return doWaggle(surroundings);
+			action = doWaggle(surroundings);
+			break;
 		case SCOUTING:
-			return doScout(surroundings);
+			action = doScout(surroundings);
+			break;
 		case GATHERING:
-			return doGather(surroundings);
+			action = doGather(surroundings);
+			break;
 		}
-			
-		return Action.HALT;
+		
+		if( this.planner != null )
+			planAhead();
+		if( Metrics.ENABLED )
+			ACTION_NANOS[acting.ordinal()].record(System.nanoTime() - start);
+		return action;
+	}
+	
+	/**
+	 * setPlanService
+	 * 
+	 * Work out the ant's next plan on the service's threads while it walks
+	 * its current one, or plan only when needed if it is null.
+	 */
+	public void setPlanService(PlanService planner){
+		this.planner = planner;
+	}
+	
+	// Returns the number of plans needed while planning ahead.
+	public long plansNeeded(){
+		return this.plansNeeded;
+	}
+	
+	// Returns the number of plans that were worked out ahead and taken.
+	public long plansReady(){
+		return this.plansReady;
+	}
+	
+	/**
+	 * planAhead
+	 * 
+	 * When the plan is nearly done and the ant knows what it will look for
+	 * next, start working out the plan after it. A gatherer carrying food
+	 * home, or out of plan, will look for food and a scout for the nearest
+	 * unknown square. The work is started once for each plan, as each start
+	 * copies the whole board on the ant's own thread, and only if at least
+	 * LEAD moves are left for it to be done before the plan runs out. The
+	 * board changes most turns, so takePlan checks the result still leads
+	 * somewhere rather than that the board is the same.
+	 */
+	private void planAhead(){
+		boolean food = this.role == Role.GATHERING && (this.holdingFood || this.plan.isEmpty());
+		boolean scout = this.role == Role.SCOUTING && this.scoutCount >= SCOUT_DETERM;
+		// A plan being worked out for another plan of ours is dropped.
+		if( (!food && !scout) || this.plan.size() > LOOKAHEAD ){
+			dropNext();
+			this.ahead = false;
+			return;
+		}
+		// The plan is done, whatever comes next is a new plan.
+		if( this.plan.isEmpty() ){
+			this.ahead = false;
+			return;
+		}
+		if( this.ahead )
+			return;
+		this.ahead = true;
+		if( this.plan.size() < LEAD )
+			return;
+		dropNext();
+		this.next = this.planner.submit(map, this.plan, food);
+	}
+	
+	// Cancel the plan being worked out ahead, if there is one.
+	private void dropNext(){
+		if( this.next != null )
+			this.next.cancel(false);
+		this.next = null;
+	}
+	
+	/**
+	 * takePlan
+	 * 
+	 * Take the plan worked out ahead of time, if it is ready and was worked
+	 * out for the same search from where the ant is. If the board has changed
+	 * since, the plan must still be walkable to food or an unknown square, see
+	 * Board.stillLeads, and a search that found nothing is not taken. Food the
+	 * plan goes for is taken off the map as suggestFood would.
+	 * 
+	 * @return true if the ant has its next plan, otherwise it must plan.
+	 */
+	private boolean takePlan(boolean food){
+		if( this.planner == null )
+			return false;
+		this.plansNeeded++;
+		if( this.next == null )
+			return false;
+		PlanService.Plan ready = PlanService.result(this.next);
+		this.next = null;
+		if( ready == null || ready.food != food || ready.x != map.x() || ready.y != map.y() )
+			return false;
+		if( ready.version != map.version() && (!ready.found || !map.stillLeads(ready.path, food)) )
+			return false;
+		if( ready.took )
+			map.takeFood(ready.targetX, ready.targetY);
+		this.plan.copyFrom(ready.path);
+		this.plansReady++;
+		return true;
+	}
+	
+	/**
+	 * setBudget
+	 * 
+	 * Limit the squares the ant's searches may expand in a turn, 0 for no
+	 * limit, see Board.setBudget. Searches that run out carry on next turn.
+	 */
+	public void setBudget(int squares){
+		this.map.setBudget(squares);
+	}
+	
+	// Returns the number of the ant's searches cut short by the budget.
+	public long budgetHits(){
+		return this.map.budgetHits();
+	}
+	
+	/**
+	 * claimOffer
+	 * 
+	 * Go to the food the waggler offered at our rank among the free ants at
+	 * the hive, if there is one, and take it off our map.
+	 */
+	private void claimOffer(){
+		int offer = this.orders.claim(this.id, this.turn);
+		if( offer < 0 )
+			return;
+		this.role = Role.GATHERING;
+		map.setTarget(this.orders.offerX(offer), this.orders.offerY(offer));
+		map.takeFood(this.orders.offerX(offer), this.orders.offerY(offer));
+		routeToTarget();
+		map.cleanTarget();
+	}
+	
+	/**
+	 * routeToTarget
+	 * 
+	 * Plan the route to the map's target. If the search ran out of budget the
+	 * plan only goes as far as the square it got closest to, or is empty, so
+	 * the target is kept and resumeRoute carries on to it when the plan runs
+	 * out. Searching for a target again would take the same food off the map
+	 * a second time.
+	 * 
+	 * @return true if the route was cut short.
+	 */
+	private boolean routeToTarget(){
+		map.RouteToTarget(this.plan);
+		this.resume = map.wasCut();
+		if( this.resume ){
+			this.resumeX = map.targetX();
+			this.resumeY = map.targetY();
+		}
+		return this.resume;
+	}
+	
+	// Carry on the route to the target of the route cut short, returns true
+	// if it was cut short again.
+	private boolean resumeRoute(){
+		map.setTarget(this.resumeX, this.resumeY);
+		boolean cut = routeToTarget();
+		map.cleanTarget();
+		return cut;
 	}
 	
 	/**
 	 * followPlan
 	 * 
 	 * @return the next move in the ants current plan and updates the map according
-	 *  to the plan. Returns null if there is no planned move.
+	 *  to the plan. Returns null if there is no planned move. Nothing is allocated.
 	 */
 	private Action followPlan(){
-		if( this.plan !=  null && !this.plan.isEmpty()){
-			Direction move = this.plan.pop();
+		if( !this.plan.isEmpty()){
+			Direction move = this.plan.next();
 			map.updatePosition(move);
-			return Action.move(move);
+			return MOVES[move.ordinal()];
 		}
 		return null;
 	}
@@ -136,7 +376,7 @@ public class MyAnt implements Ant{
 		}
 		return null;
 	}
-
+	
 	// Return a random viable direction for the ant to move.
 	private Direction getRandomMove(){
 		Direction move = randomDirection();
@@ -147,8 +387,7 @@ public class MyAnt implements Ant{
 	
 	// Return a random direction to generate random moves.
 	private Direction randomDirection(){
-		Random rand = new Random();
-		switch( rand.nextInt(4)){
+		switch( this.random.nextInt(4)){
 		case 0:
 			return Direction.NORTH;
 		case 1:
@@ -160,7 +399,7 @@ public class MyAnt implements Ant{
 		}
 		return null; 
 	}
-
+	
 	/**
 	 * moveBySearchOrder
 	 * 
@@ -204,7 +443,8 @@ public class MyAnt implements Ant{
 				!map.atHive() && !this.holdingFood){
 			// If there is food to gather and the ant isn't holding any, gather.
 			this.holdingFood = true;
-			this.plan = map.RouteToHive();
+			this.resume = false;
+			map.RouteToHive(this.plan);
 			return Action.GATHER;
 		} else if ( this.holdingFood && map.atHive() ){
 			// If the ant is at the hive and has food, drop off.
@@ -214,13 +454,25 @@ public class MyAnt implements Ant{
 			// Otherwise, follow the plan.
 			Action planned = followPlan();
 			if( planned == null ){
-				// If there is no plan, find some nearby food and make a plan.
-				map.suggestFood();
-				this.plan = map.RouteToTarget();
-				map.cleanTarget();
+				// If there is no plan, carry on to the food of a route cut short or
+				// find some nearby food and make a plan, unless it was worked out
+				// ahead. If a search ran out of budget wait for it to carry on next
+				// turn.
+				boolean cut = false;
+				if( this.resume ){
+					cut = resumeRoute();
+				} else if( !takePlan(true) ){
+					map.suggestFood();
+					if( map.wasCut() )
+						return Action.HALT;
+					cut = routeToTarget();
+					map.cleanTarget();
+				}
 				planned = followPlan();
 				if(planned != null){
 					return planned;
+				} else if( cut ){
+					return Action.HALT;
 				}	else {
 					// If there was still no viable food plan, become a scout.
 					this.role = Role.SCOUTING;
@@ -230,12 +482,12 @@ public class MyAnt implements Ant{
 				return planned;
 			}
 		}
-		
+	
 	}
 	
 	/**
 	 * doScout
-	 *
+	 * 
 	 * Returns the move based on the ant being a scout. The ant follows its randomized 
 	 * start point in the search order for several steps then searches for the closest 
 	 * unknown square on the map. This means ants will start search off randomly in 
@@ -252,26 +504,37 @@ public class MyAnt implements Ant{
 		
 		// Try to follow the plan.
 		Action planned = followPlan();
-
+		
 		if(planned == null){
 			// There is no plan.
-			scoutCount++;
-
-			if( scoutCount > this.SCOUT_DETERM ){
-				// The ant has scouted for a while so find unknown places.
-				map.suggestScout();
-				this.plan = map.RouteToTarget();
-				map.cleanTarget();
+			if( scoutCount >= this.SCOUT_DETERM ){
+				// The ant has scouted for a while so carry on to the unknown place
+				// of a route cut short or find one, unless the plan was worked out
+				// ahead. A turn spent waiting for a search to carry on is not a
+				// step of scouting.
+				if( this.resume ){
+					resumeRoute();
+				} else if( !takePlan(false) ){
+					map.suggestScout();
+					if( map.wasCut() )
+						return Action.HALT;
+					routeToTarget();
+					map.cleanTarget();
+				}
+				
 				// follow the new scout plan.
 				planned = followPlan();
 				if(planned == null)
 					return Action.HALT;
+				scoutCount++;
 				
 				if( scoutCount > this.SCOUT_TIME){
 					// The ant has scouted for long enough so find a close food
 					scoutCount = 1;
 					map.suggestFood();
-					plan = map.RouteToTarget();
+					// If the search ran out of budget finish the scout plan first.
+					if( !map.wasCut() )
+						routeToTarget();
 					map.cleanTarget();
 					this.role = Role.GATHERING;
 				}
@@ -279,16 +542,17 @@ public class MyAnt implements Ant{
 				return planned;
 			} else {
 				// The scout has only had a few moves, follow the search order.
+				scoutCount++;
 				this.scoutLastDir = moveBySearchOrder();
 				map.updatePosition(scoutLastDir);
-				return Action.move(this.scoutLastDir);
+				return MOVES[this.scoutLastDir.ordinal()];
 			}
 		} else {
 			//There is a plan, follow it.
 			return planned;
 		}
 	}
-
+	
 	/**
 	 * doWaggle
 	 * 
@@ -299,64 +563,104 @@ public class MyAnt implements Ant{
 		return Action.HALT;
 	}
 	
-
 	
-	// Wrapper for serializing the board
+	
+	/**
+	 * writeBoard
+	 * 
+	 * Serialize the board followed by what we have merged of the other ants'
+	 * boards. Only the rows changed since the version every ant around has 
+	 * acknowledged are sent, which is the whole board when meeting new ants.
+	 */
 	private byte[] writeBoard(){
-		Gson gson = new Gson();
-		return gson.toJson(this.map).getBytes();
+		// Grow the buffer if the board could outgrow it.
+		int size = this.map.encodedSize() + this.peers.encodedSize() + this.orders.encodedSize();
+		if( this.outbox.capacity() < size )
+			this.outbox = ByteBuffer.allocate(Math.max(size, this.outbox.capacity() * 2));
+		this.outbox.clear();
+		// With a blackboard every ant already has the board, send none of it.
+		this.map.write(this.outbox, this.shared != null ? this.map.version() : this.peers.base(this.turn));
+		this.peers.write(this.outbox, this.id, this.turn);
+		// A gatherer back with food stays a turn to drop it off, so it can wait for orders.
+		if( this.role == Role.WAGGLING )
+			this.status = Orders.WAGGLING;
+		else if( this.holdingFood && map.atHive() )
+			this.status = Orders.WAITING;
+		else
+			this.status = Orders.FREE;
+		this.orders.write(this.outbox, this.status);
+		return Arrays.copyOf(this.outbox.array(), this.outbox.position());
 	}
 	
-	// Wrapper for deserializing the board
-	private Board readBoard(byte[] b){
-		Gson gson = new Gson();
-		String json = new String(b);
-		return gson.fromJson(json, Board.class);
+	// Wrapper for deserializing the board, the result is only valid until the
+	// next message is read.
+	private Board readBoard(ByteBuffer in){
+		this.inbox.read(in);
+		return this.inbox;
 	}
-
+	
 	/**
 	 * send
 	 * 
-	 * If the ant is waggling, have it choose a target food for the communicating ant.
+	 * If the ant is waggling, have it order the gatherers waiting at the hive to
+	 * food and offer the next closest foods to the other communicating ants.
 	 * Otherwise just share share the info about the board.
 	 */
 	public byte[] send(){
+		// The turn starts here, so the routes receive plans for orders share
+		// the turn's search budget with getAction.
+		map.newTurn();
+		this.started = true;
 		
-		// If waggling, find the nearest food, otherwise hide target to not direct 
-		// the other ant.
-		if(this.role == Role.WAGGLING){
-			map.suggestFood();
-		} else {
-			map.cleanTarget();
-		}
-		
-		byte[] b = writeBoard();
-
-		// clean the target so we don't accidentally send two ants to the same place.
+		// If waggling, send the waiting ants to the nearest foods and offer the next
+		// nearest to the rest, otherwise give no orders. The target is hidden so it
+		// does not direct the other ant, the waggler's food is all in the orders.
 		if(this.role == Role.WAGGLING)
-			map.cleanTarget();
+			this.orders.assign(map, this.turn);
+		else
+			this.orders.clear();
+		map.cleanTarget();
 		
-		return b;
+		byte[] message = writeBoard();
+		if( Metrics.ENABLED )
+			MESSAGE_BYTES.record(message.length);
+		return message;
 	}
 	
 	/**
 	 * receive
 	 * 
 	 * If the ant is at the hive and not the waggler, get a new target and become
-	 * a gatherer. Otherwise, if the ant is waggling or scouting add the other ants
-	 * map knowledge to its own map.
+	 * a gatherer, the food it was ordered to if there is an order for it.
+	 * Otherwise, if the ant is waggling or scouting add the other ants map
+	 * knowledge to its own map.
 	 */
 	public void receive(byte[] data){
-		Board new_board = readBoard(data);
+		ByteBuffer in = ByteBuffer.wrap(data);
+		Board new_board = readBoard(in);
+		long sender = this.peers.read(in, this.id);
+		boolean ordered = this.orders.read(in, this.id, sender, this.turn);
+		boolean merged = true;
 		
 		if( new_board.atHive() && this.role != Role.WAGGLING){
 			this.role = Role.GATHERING;		
 			this.map.combineBoards(new_board);
-			this.plan = map.RouteToTarget();
+			if( ordered ){
+				map.setTarget(this.orders.orderX(), this.orders.orderY());
+				this.orderTurn = this.turn;
+			}
+			// An order is kept over the targets of the other messages this turn.
+			if( ordered || this.orderTurn != this.turn )
+				routeToTarget();
 			map.cleanTarget();
 		} else if ( this.role == Role.WAGGLING || this.role == Role.SCOUTING){
 			this.map.combineBoards(new_board);
+		} else {
+			merged = false;
 		}
+		
+		// Remember how much of the sender's board we have so it can send less.
+		this.peers.heard(sender, new_board.version(), new_board.since(), this.turn, merged);
 	}
 	
 	/**
@@ -0,0 +1,260 @@
+/**
+ * Class: Orders
+ * Author: Matthew Dailey
+ * 
+ * The waggler's orders sending gatherers to food, carried at the end of
+ * every message.
+ * 
+ * A message is heard by every ant on the square and the waggler sends its
+ * message before it hears the ants that arrived, so it cannot give an ant
+ * an order the turn it arrives. A gatherer bringing food back stays at the
+ * hive the turn after to drop it off, so it says in its message that it is
+ * waiting and the waggler orders every ant that was waiting in its next
+ * message, each to a different food, all found in one pass over the hive's
+ * distances by Board.closestFood.
+ * 
+ * The other ants at the hive, the free ones, are matched to the next
+ * closest foods without the waggler knowing who they are. The waggler
+ * offers a few more foods than there were free ants last turn, without
+ * taking them off its board. Every ant at the hive hears every other ant's
+ * message, so once the messages of the turn are heard every ant knows the
+ * same free ants and a free ant claims the offer at its rank among their
+ * ids. The waggler counts the same ants and takes off its board only the
+ * food they claimed, so food is never taken for an ant that is not there.
+ * 
+ * Every ant starts from the hive, so sending the ants to the closest foods,
+ * one each, is also the matching with the shortest trips in total.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class Orders {
+	static final byte FREE = 0;		// Status of an ant that can claim an offer.
+	static final byte WAITING = 1;	// Status of an ant waiting for an order.
+	static final byte WAGGLING = 2;	// Status of the waggler.
+	private static final int SPARE = 4; // Foods offered over the free ants last turn.
+	
+	// Orders and offers we send, orders first.
+	private long[] ids;			// Ant each order is for.
+	private int[] targetX;		// East-west position of each order's or offer's food.
+	private int[] targetY;		// North-south position of each order's or offer's food.
+	private int count;			// Number of orders to send.
+	private int offers;			// Number of offers to send after the orders.
+	private int free;			// Number of free ants that claimed offers last turn.
+	
+	// What we heard in the messages of the turn.
+	private int turn;			// Turn the messages were heard in.
+	private long[] waiting;		// Ants heard waiting.
+	private int waitingCount;	// Number of ants waiting.
+	private long[] freeIds;		// Free ants heard.
+	private int freeCount;		// Number of free ants heard.
+	private long[] ordered;		// Ants the waggler's message ordered.
+	private int orderedCount;	// Number of ants ordered.
+	private int[] offerX;		// Positions of the foods the waggler offered.
+	private int[] offerY;
+	private int offerCount;		// Number of foods offered.
+	private int orderX;			// Position of the food in the order for us.
+	private int orderY;
+	
+	public Orders(){
+		this.ids = new long[4];
+		this.targetX = new int[4];
+		this.targetY = new int[4];
+		this.turn = -1;
+		this.waiting = new long[4];
+		this.freeIds = new long[4];
+		this.ordered = new long[4];
+		this.offerX = new int[4];
+		this.offerY = new int[4];
+	}
+	
+	/**
+	 * assign
+	 * 
+	 * Order every ant that was waiting to a different food on the board,
+	 * closest to the hive first, taking the food off the board, and offer
+	 * the next closest foods to the free ants. Ants left over when the food
+	 * runs out get no order.
+	 */
+	void assign(Board board, int turn){
+		int waiting = this.turn == turn - 1 ? this.waitingCount : 0;
+		int wanted = waiting + this.free + SPARE;
+		if( this.targetX.length < wanted ){
+			this.targetX = new int[wanted * 2];
+			this.targetY = new int[wanted * 2];
+		}
+		if( this.ids.length < waiting )
+			this.ids = Arrays.copyOf(this.ids, waiting * 2);
+		
+		int found = board.closestFood(wanted, this.targetX, this.targetY);
+		this.count = Math.min(waiting, found);
+		this.offers = found - this.count;
+		for( int i = 0; i < this.count; i++ ){
+			this.ids[i] = this.waiting[i];
+			board.takeFood(this.targetX[i], this.targetY[i]);
+		}
+	}
+	
+	/**
+	 * settle
+	 * 
+	 * Once every message of the turn is heard, take the food the free ants
+	 * claimed off the waggler's board.
+	 */
+	void settle(Board board, int turn){
+		int claimed = 0;
+		if( this.turn == turn ){
+			for( int i = 0; i < this.freeCount; i++ )
+				if( !contains(this.ids, this.count, this.freeIds[i]) )
+					claimed++;
+		}
+		this.free = claimed;
+		for( int i = 0; i < Math.min(claimed, this.offers); i++ )
+			board.takeFood(this.targetX[this.count + i], this.targetY[this.count + i]);
+	}
+	
+	/**
+	 * claim
+	 * 
+	 * Once every message of the turn is heard, find the offer a free ant
+	 * claims: the one at its rank among the ids of the free ants the
+	 * waggler did not order.
+	 * 
+	 * @return the index of the offer, see offerX and offerY, or -1 if there
+	 * is none for us.
+	 */
+	int claim(long self, int turn){
+		if( this.turn != turn || this.offerCount == 0 )
+			return -1;
+		int rank = 0;
+		for( int i = 0; i < this.freeCount; i++ ){
+			long id = this.freeIds[i];
+			if( id < self && !contains(this.ordered, this.orderedCount, id) )
+				rank++;
+		}
+		return rank < this.offerCount ? rank : -1;
+	}
+	
+	// Send no orders or offers.
+	void clear(){
+		this.count = 0;
+		this.offers = 0;
+	}
+	
+	// Returns the most bytes write can need.
+	int encodedSize(){
+		return 1 + 2 * WireFormat.MAX_VARINT + this.count * (8 + 2 * WireFormat.MAX_VARINT)
+				+ this.offers * 2 * WireFormat.MAX_VARINT;
+	}
+	
+	/**
+	 * write
+	 * 
+	 * Write our status, the orders and then the offers to send.
+	 */
+	void write(ByteBuffer out, byte status){
+		out.put(status);
+		WireFormat.putVarint(out, this.count);
+		for( int i = 0; i < this.count; i++ ){
+			out.putLong(this.ids[i]);
+			WireFormat.putInt(out, this.targetX[i]);
+			WireFormat.putInt(out, this.targetY[i]);
+		}
+		WireFormat.putVarint(out, this.offers);
+		for( int i = this.count; i < this.count + this.offers; i++ ){
+			WireFormat.putInt(out, this.targetX[i]);
+			WireFormat.putInt(out, this.targetY[i]);
+		}
+	}
+	
+	/**
+	 * read
+	 * 
+	 * Read what write wrote and remember the sender's status and any offers
+	 * for the rest of the turn.
+	 * 
+	 * @param self : our id.
+	 * @param sender : id of the sending ant.
+	 * @param turn : the current turn.
+	 * @return true if there was an order for us, see orderX and orderY.
+	 */
+	boolean read(ByteBuffer in, long self, long sender, int turn){
+		if( this.turn != turn ){
+			// The first message of the turn, forget the last turn's.
+			this.turn = turn;
+			this.waitingCount = 0;
+			this.freeCount = 0;
+			this.orderedCount = 0;
+			this.offerCount = 0;
+		}
+		byte status = in.get();
+		if( status == WAITING )
+			this.waiting = add(this.waiting, this.waitingCount++, sender);
+		else if( status == FREE )
+			this.freeIds = add(this.freeIds, this.freeCount++, sender);
+		
+		boolean ordered = false;
+		int count = WireFormat.getVarint(in);
+		for( int i = 0; i < count; i++ ){
+			long id = in.getLong();
+			int x = WireFormat.getInt(in);
+			int y = WireFormat.getInt(in);
+			this.ordered = add(this.ordered, this.orderedCount++, id);
+			if( id == self ){
+				this.orderX = x;
+				this.orderY = y;
+				ordered = true;
+			}
+		}
+		int offers = WireFormat.getVarint(in);
+		if( offers > 0 ){
+			if( this.offerX.length < offers ){
+				this.offerX = new int[offers];
+				this.offerY = new int[offers];
+			}
+			for( int i = 0; i < offers; i++ ){
+				this.offerX[i] = WireFormat.getInt(in);
+				this.offerY[i] = WireFormat.getInt(in);
+			}
+			this.offerCount = offers;
+		}
+		return ordered;
+	}
+	
+	// Returns the east-west position of the food in the last order for us.
+	int orderX(){
+		return this.orderX;
+	}
+	
+	// Returns the north-south position of the food in the last order for us.
+	int orderY(){
+		return this.orderY;
+	}
+	
+	// Returns the east-west position of the food of an offer.
+	int offerX(int i){
+		return this.offerX[i];
+	}
+	
+	// Returns the north-south position of the food of an offer.
+	int offerY(int i){
+		return this.offerY[i];
+	}
+	
+	// Put the id at the index of the array, growing it if it is full.
+	private static long[] add(long[] ids, int i, long id){
+		if( i == ids.length )
+			ids = Arrays.copyOf(ids, ids.length * 2);
+		ids[i] = id;
+		return ids;
+	}
+	
+	// Returns true if the id is in the first count entries of the array.
+	private static boolean contains(long[] ids, int count, long id){
+		for( int i = 0; i < count; i++ )
+			if( ids[i] == id )
+				return true;
+		return false;
+	}
+}
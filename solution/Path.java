@@ -0,0 +1,105 @@
+/**
+ * Class: Path
+ * Author: Matthew Dailey
+ * 
+ * A route as a list of moves for an ant to follow one a turn. There are only
+ * four directions so each move is kept in 2 bits, 32 moves to a long, and a
+ * cursor marks the next move to take.
+ * 
+ * An ant keeps one path for its whole life and the board writes each new
+ * route into it, so following and replanning routes never allocates once
+ * the path has grown to the longest route.
+ */
+
+import java.util.Arrays;
+
+import ants.*;
+
+public class Path {
+	private static final Direction[] DIRECTIONS = Direction.values();
+	
+	private long[] moves;	// Ordinal of each move, move i in bits 2 * (i % 32) of moves[i / 32].
+	private int length;		// Number of moves in the path.
+	private int cursor;		// Index of the next move to take.
+	
+	/**
+	 * Path
+	 * 
+	 * Instantiate an empty path.
+	 */
+	public Path(){
+		this.moves = new long[1];
+		this.length = 0;
+		this.cursor = 0;
+	}
+	
+	// Forget every move.
+	public void clear(){
+		this.length = 0;
+		this.cursor = 0;
+	}
+	
+	// Returns true if there are no moves left to take.
+	public boolean isEmpty(){
+		return this.cursor == this.length;
+	}
+	
+	// Returns the number of moves left to take.
+	public int size(){
+		return this.length - this.cursor;
+	}
+	
+	// Returns the next move and moves the cursor past it.
+	public Direction next(){
+		return get(this.cursor++);
+	}
+	
+	// Returns the i-th move left to take without taking it.
+	public Direction peek(int i){
+		return get(this.cursor + i);
+	}
+	
+	// Add a move to the end of the path.
+	public void add(Direction d){
+		ensureCapacity(this.length + 1);
+		set(this.length++, d);
+	}
+	
+	/**
+	 * reset
+	 * 
+	 * Empty the path and make it the input number of moves long, ready for
+	 * the moves to be set in any order.
+	 */
+	void reset(int length){
+		ensureCapacity(length);
+		this.length = length;
+		this.cursor = 0;
+	}
+	
+	// Set the i-th move of the path.
+	void set(int i, Direction d){
+		int shift = (i & 31) << 1;
+		this.moves[i >>> 5] = (this.moves[i >>> 5] & ~(3L << shift)) | ((long)d.ordinal() << shift);
+	}
+	
+	// Replace this path with the moves of the other left to take.
+	public void copyFrom(Path other){
+		int size = other.size();
+		reset(size);
+		for( int i = 0; i < size; i++ )
+			set(i, other.peek(i));
+	}
+	
+	// Returns the i-th move of the path.
+	private Direction get(int i){
+		return DIRECTIONS[(int)(this.moves[i >>> 5] >>> ((i & 31) << 1)) & 3];
+	}
+	
+	// Make room for the input number of moves, at least doubling the room.
+	void ensureCapacity(int length){
+		int words = (length + 31) >>> 5;
+		if( words > this.moves.length )
+			this.moves = Arrays.copyOf(this.moves, Math.max(words, this.moves.length * 2));
+	}
+}
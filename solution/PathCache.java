@@ -0,0 +1,185 @@
+/**
+ * Class: PathCache
+ * Author: Matthew Dailey
+ * 
+ * A small cache of the routes a Board found recently, keyed by start and
+ * end square. Gatherers ask for the same routes over and over, from the hive
+ * to a busy food square and back, so a route is kept until something on the
+ * board could change it. Routes are only kept for the planner that found
+ * them: the key has no planner, so Board.setPlanner clears the cache when
+ * the planner changes.
+ * 
+ * An entry remembers the epoch and length of the board's change log when it
+ * was last checked. A route of length L between s and t can only be changed
+ * by a square q with |s - q| + |q - t| <= L in Manhattan distance: a blocked
+ * square further out cannot be on it and an opened square further out
+ * cannot make a shorter one. When an entry is looked up the squares changed
+ * since it was checked are tested against that and the entry is dropped if
+ * any is inside. A new epoch means the log was dropped so every entry from
+ * an older one is dropped too.
+ * 
+ * When the cache is full the entry to replace is chosen CLOCK style: a hand
+ * sweeps the entries, sparing the ones used since it last passed. The number
+ * of entries defaults to the ants.pathCache system property or 32, and a
+ * size of 0 turns the cache off. Entries are found by scanning their keys,
+ * which for a few dozen entries is as quick as hashing.
+ * 
+ * Every entry is given room for as many moves as Board.routeRoom, or the
+ * longest route kept if that is longer, whenever that grows. The entries
+ * then grow together while the board is being explored rather than one at
+ * a time whenever a long route lands in an entry that has only held short
+ * ones.
+ * 
+ * Hits and misses of every cache are counted in the Metrics as well.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PathCache {
+	static final int DEFAULT_CAPACITY = Integer.getInteger("ants.pathCache", 32);
+	private static final long EMPTY = -1L; // Key of an unused entry.
+	
+	// Metrics of every cache, kept only if Metrics.ENABLED.
+	private static final LongAdder HITS = Metrics.counter("pathCache.hits");
+	private static final LongAdder MISSES = Metrics.counter("pathCache.misses");
+	
+	private final Board board;		// Board the routes are on.
+	private long[] keys;			// (start << 32) | end of each entry.
+	private Path[] moves;			// Moves of each route, reused as entries are replaced.
+	private int[] epochs;			// Epoch of the change log each entry was checked in.
+	private int[] checked;			// Length of the change log each entry was checked at.
+	private boolean[] referenced;	// True if the entry was used since the hand passed it.
+	private int room;				// Moves every entry has room for.
+	private int hand;				// Next entry the clock hand looks at.
+	private long hits;				// Number of lookups that found a route.
+	private long misses;			// Number of lookups that did not.
+	
+	/**
+	 * PathCache
+	 * 
+	 * @param board : board the routes are found on.
+	 * @param capacity : most routes to keep, 0 to keep none.
+	 */
+	public PathCache(Board board, int capacity){
+		this.board = board;
+		setCapacity(capacity);
+	}
+	
+	// Change the most routes to keep, forgetting every route kept so far.
+	public void setCapacity(int capacity){
+		this.keys = new long[capacity];
+		this.moves = new Path[capacity];
+		this.epochs = new int[capacity];
+		this.checked = new int[capacity];
+		this.referenced = new boolean[capacity];
+		for( int i = 0; i < capacity; i++ ){
+			this.moves[i] = new Path();
+			this.moves[i].ensureCapacity(this.room);
+		}
+		clear();
+	}
+	
+	// Forget every route kept so far.
+	public void clear(){
+		Arrays.fill(this.keys, EMPTY);
+		Arrays.fill(this.referenced, false);
+		this.hand = 0;
+	}
+	
+	// Returns the most routes the cache keeps.
+	public int capacity(){
+		return this.keys.length;
+	}
+	
+	// Returns the number of lookups that found a route.
+	public long hits(){
+		return this.hits;
+	}
+	
+	// Returns the number of lookups that did not find a route.
+	public long misses(){
+		return this.misses;
+	}
+	
+	/**
+	 * get
+	 * 
+	 * Copy the route from the start square to the end square into the path.
+	 * 
+	 * @return true if it was copied, false if there is no route kept or the
+	 * board has changed in a way that could change it.
+	 */
+	boolean get(int start, int end, Path path){
+		long key = ((long)start << 32) | end;
+		for( int i = 0; i < this.keys.length; i++ ){
+			if( this.keys[i] != key )
+				continue;
+			if( !isCurrent(i, start, end) ){
+				this.keys[i] = EMPTY;
+				break;
+			}
+			this.referenced[i] = true;
+			this.hits++;
+			if( Metrics.ENABLED )
+				HITS.increment();
+			path.copyFrom(this.moves[i]);
+			return true;
+		}
+		this.misses++;
+		if( Metrics.ENABLED )
+			MISSES.increment();
+		return false;
+	}
+	
+	/**
+	 * put
+	 * 
+	 * Keep the route from the start square to the end square, replacing the
+	 * first entry the clock hand finds unused since it last passed.
+	 */
+	void put(int start, int end, Path path){
+		if( this.keys.length == 0 )
+			return;
+		while( this.referenced[this.hand] ){
+			this.referenced[this.hand] = false;
+			this.hand = (this.hand + 1) % this.keys.length;
+		}
+		int i = this.hand;
+		this.hand = (this.hand + 1) % this.keys.length;
+		this.keys[i] = ((long)start << 32) | end;
+		int room = Math.max(path.size(), this.board.routeRoom());
+		if( room > this.room ){
+			this.room = room;
+			for( Path moves : this.moves )
+				moves.ensureCapacity(room);
+		}
+		this.moves[i].copyFrom(path);
+		this.epochs[i] = this.board.epoch();
+		this.checked[i] = this.board.changes();
+		this.referenced[i] = false;
+	}
+	
+	// Returns true if none of the squares changed since the entry was last
+	// checked could change its route, and marks it checked.
+	private boolean isCurrent(int i, int start, int end){
+		if( this.epochs[i] != this.board.epoch() )
+			return false;
+		int changes = this.board.changes();
+		int length = this.moves[i].size();
+		int startX = this.board.squareX(start);
+		int startY = this.board.squareY(start);
+		int endX = this.board.squareX(end);
+		int endY = this.board.squareY(end);
+		for( int c = this.checked[i]; c < changes; c++ ){
+			int square = this.board.changed(c);
+			int x = this.board.squareX(square);
+			int y = this.board.squareY(square);
+			if( Math.abs(x - startX) + Math.abs(y - startY)
+					+ Math.abs(x - endX) + Math.abs(y - endY) <= length )
+				return false;
+		}
+		this.checked[i] = changes;
+		return true;
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ * Class: Peers
+ * Author: Matthew Dailey
+ * 
+ * Keeps track of how much of each other's boards an ant and the ants it
+ * talks to have merged, so that boards can be sent as only the rows changed
+ * since the last exchange rather than in full.
+ * 
+ * Messages are heard by every ant on the square, so a message can only be a
+ * delta from a version every ant around has acknowledged. The ants heard
+ * from in the last turn are taken to be the ones around. An ant that was
+ * not around, or has not acknowledged anything, makes the next message a
+ * whole board. Merging is safe whatever was missed since boards only ever
+ * gain squares or lose food, so a delta that does not line up is still
+ * merged and only the acknowledgement waits for a whole board.
+ * 
+ * Ants not heard from in the last two turns are forgotten, so the table and
+ * the work done on it each turn stay the size of the crowd around rather
+ * than of every ant ever met. An ant met again starts from nothing, which
+ * costs one whole board. A message acknowledges at most MAX_ACKS of the ants
+ * around, taking turns through them, so a crowd at the hive does not make
+ * every message as long as the crowd. An ant left out waits a turn or two
+ * for its acknowledgement and sends more rows than it needs in the meantime.
+ * 
+ * Ants are kept in an open addressing table keyed by id, in the style of
+ * Board's chunk table, so looking an ant up on every message boxes nothing.
+ */
+
+import java.nio.ByteBuffer;
+
+public class Peers {
+	static final int MAX_ACKS = 16;		// Most acknowledgements written in a message.
+	private static final int FORGET = 2; // Turns without a message before an ant is forgotten.
+	
+	private long[] ids;			// Id of the ant in each slot.
+	private boolean[] used;		// True if the slot holds an ant.
+	private int[] merged;		// Version of its board we have merged.
+	private int[] acked;		// Version of our board it has merged.
+	private int[] lastTurn;		// Last turn we heard from it.
+	private int count;			// Number of ants in the table.
+	private int cursor;			// Slot the next message's acknowledgements start from.
+	
+	public Peers(){
+		allocate(8);
+	}
+	
+	/**
+	 * heard
+	 * 
+	 * Record a message from another ant.
+	 * 
+	 * @param id : id of the sending ant.
+	 * @param version : version of the sender's board in the message.
+	 * @param since : version the message is a delta from, 0 if whole.
+	 * @param turn : the current turn.
+	 * @param merged : true if the board in the message was merged.
+	 */
+	void heard(long id, int version, int since, int turn, boolean merged){
+		int slot = peer(id);
+		// Only count the board as merged if nothing between was missed.
+		if( merged && since <= this.merged[slot] )
+			this.merged[slot] = Math.max(this.merged[slot], version);
+		this.lastTurn[slot] = turn;
+	}
+	
+	/**
+	 * base
+	 * 
+	 * @return the version of our board every ant around has merged, so the
+	 * next message can be the rows changed since. 0 if any of them has not
+	 * merged anything or no ants are around.
+	 */
+	int base(int turn){
+		int base = Integer.MAX_VALUE;
+		for( int i = 0; i < this.ids.length; i++ )
+			if( around(i, turn) )
+				base = Math.min(base, this.acked[i]);
+		return base == Integer.MAX_VALUE ? 0 : base;
+	}
+	
+	// Returns the most bytes write can need.
+	int encodedSize(){
+		return 8 + WireFormat.MAX_VARINT + Math.min(this.count, MAX_ACKS) * (8 + WireFormat.MAX_VARINT);
+	}
+	
+	/**
+	 * write
+	 * 
+	 * Forget the ants that have gone, then write our id and the versions of
+	 * the boards of up to MAX_ACKS ants around we have merged, so they know
+	 * what to send us next. Each message starts where the last left off.
+	 */
+	void write(ByteBuffer out, long self, int turn){
+		forget(turn);
+		out.putLong(self);
+		int around = 0;
+		for( int i = 0; i < this.ids.length; i++ )
+			if( around(i, turn) )
+				around++;
+		int count = Math.min(around, MAX_ACKS);
+		WireFormat.putVarint(out, count);
+		int mask = this.ids.length - 1;
+		int i = this.cursor & mask;
+		for( int written = 0; written < count; i = (i + 1) & mask ){
+			if( around(i, turn) ){
+				out.putLong(this.ids[i]);
+				WireFormat.putVarint(out, this.merged[i]);
+				written++;
+			}
+		}
+		this.cursor = i;
+	}
+	
+	/**
+	 * read
+	 * 
+	 * Read what write wrote and note how much of our board the sender has.
+	 * 
+	 * @return the id of the sender.
+	 */
+	long read(ByteBuffer in, long self){
+		long sender = in.getLong();
+		int slot = peer(sender);
+		int count = WireFormat.getVarint(in);
+		for( int i = 0; i < count; i++ ){
+			long id = in.getLong();
+			int merged = WireFormat.getVarint(in);
+			if( id == self )
+				this.acked[slot] = Math.max(this.acked[slot], merged);
+		}
+		return sender;
+	}
+	
+	// Returns true if the slot holds an ant heard from last turn.
+	private boolean around(int slot, int turn){
+		return this.used[slot] && this.lastTurn[slot] >= turn - 1;
+	}
+	
+	// Spread ids over the table.
+	private static int hash(long id){
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+	
+	/**
+	 * peer
+	 * 
+	 * @return the slot of the ant, adding it with nothing known if it is new.
+	 */
+	private int peer(long id){
+		int mask = this.ids.length - 1;
+		int i = hash(id) & mask;
+		for( ; this.used[i]; i = (i + 1) & mask )
+			if( this.ids[i] == id )
+				return i;
+		// Keep the table at most half full.
+		if( (this.count + 1) * 2 > this.ids.length ){
+			grow();
+			return peer(id);
+		}
+		this.used[i] = true;
+		this.ids[i] = id;
+		this.merged[i] = 0;
+		this.acked[i] = 0;
+		this.lastTurn[i] = 0;
+		this.count++;
+		return i;
+	}
+	
+	/**
+	 * forget
+	 * 
+	 * Remove the ants not heard from in the last FORGET turns.
+	 */
+	private void forget(int turn){
+		for( int i = 0; i < this.ids.length; i++ ){
+			// Removing shifts a later ant into the slot, which is checked again.
+			while( this.used[i] && this.lastTurn[i] < turn - FORGET )
+				remove(i);
+		}
+	}
+	
+	/**
+	 * remove
+	 * 
+	 * Empty a slot, moving back the ants after it that probed past it so
+	 * every ant can still be found from its hash.
+	 */
+	private void remove(int slot){
+		int mask = this.ids.length - 1;
+		int hole = slot;
+		for( int i = (slot + 1) & mask; this.used[i]; i = (i + 1) & mask ){
+			int home = hash(this.ids[i]) & mask;
+			// Move the ant back only if the hole is between its hash and it.
+			if( ((i - home) & mask) >= ((i - hole) & mask) ){
+				move(i, hole);
+				hole = i;
+			}
+		}
+		this.used[hole] = false;
+		this.count--;
+	}
+	
+	// Copy the ant in one slot to another.
+	private void move(int from, int to){
+		this.ids[to] = this.ids[from];
+		this.merged[to] = this.merged[from];
+		this.acked[to] = this.acked[from];
+		this.lastTurn[to] = this.lastTurn[from];
+	}
+	
+	// Double the table and put every ant back.
+	private void grow(){
+		long[] ids = this.ids;
+		boolean[] used = this.used;
+		int[] merged = this.merged;
+		int[] acked = this.acked;
+		int[] lastTurn = this.lastTurn;
+		allocate(ids.length * 2);
+		for( int s = 0; s < ids.length; s++ ){
+			if( !used[s] )
+				continue;
+			int i = peer(ids[s]);
+			this.merged[i] = merged[s];
+			this.acked[i] = acked[s];
+			this.lastTurn[i] = lastTurn[s];
+		}
+	}
+	
+	// Replace the table with an empty one of a power of two slots.
+	private void allocate(int capacity){
+		this.ids = new long[capacity];
+		this.used = new boolean[capacity];
+		this.merged = new int[capacity];
+		this.acked = new int[capacity];
+		this.lastTurn = new int[capacity];
+		this.count = 0;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Class: PlanService
+ * Author: Matthew Dailey
+ * 
+ * Works out an ant's next plan on a worker thread while it walks the plan
+ * it has, so the turn the plan runs out does not have to wait for a search.
+ * A gatherer carrying food home will look for the nearest food from the
+ * hive once it drops off, and a scout at the end of its plan will look for
+ * the nearest unknown square, so both searches can be run ahead of time on
+ * a snapshot of the board with the ant where its plan ends.
+ * 
+ * The snapshot is a copy, so the worker never touches the ant's own board.
+ * An ant only takes the plan if it is where the plan starts and either the
+ * board is at the same version as when the snapshot was taken, so it is the
+ * plan the ant would have found itself, or the plan found a target and can
+ * still be walked to it on the board as it is now. Otherwise it plans as
+ * usual.
+ * 
+ * One service can be shared by every ant in the process.
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class PlanService {
+	private final ExecutorService workers;	// Threads the plans are worked out on.
+	
+	/**
+	 * PlanService
+	 * 
+	 * @param threads : number of worker threads, which do not keep the JVM
+	 * alive.
+	 */
+	public PlanService(int threads){
+		this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread thread = new Thread(r, "planner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * submit
+	 * 
+	 * Start working out the next plan on a snapshot of an ant's board.
+	 * 
+	 * @param board : the ant's board, only read on the calling thread.
+	 * @param plan : the plan the ant is walking, the next plan starts where it ends.
+	 * @param food : true to plan for the nearest food, false for the nearest
+	 * unknown square.
+	 */
+	Future<Plan> submit(Board board, Path plan, final boolean food){
+		final Board snapshot = board.snapshot(plan);
+		final int version = board.version();
+		return this.workers.submit(new Callable<Plan>(){
+			public Plan call(){
+				// suggestFood takes food off the square it picks, which is a
+				// change to the board, so a new version means food was found.
+				if( food )
+					snapshot.suggestFood();
+				else
+					snapshot.suggestScout();
+				// Without food or an unknown square the target is the hive.
+				boolean took = snapshot.version() != version;
+				boolean found = food ? took : snapshot.targetX() != 0 || snapshot.targetY() != 0;
+				Plan next = new Plan(version, snapshot.x(), snapshot.y(), food, took, found,
+						snapshot.targetX(), snapshot.targetY());
+				snapshot.RouteToTarget(next.path);
+				return next;
+			}
+		});
+	}
+	
+	/**
+	 * result
+	 * 
+	 * @return the plan if it has been worked out, otherwise null and the
+	 * work is cancelled. Never waits.
+	 */
+	static Plan result(Future<Plan> next){
+		if( !next.isDone() ){
+			next.cancel(false);
+			return null;
+		}
+		try {
+			return next.get();
+		} catch( InterruptedException e ){
+			Thread.currentThread().interrupt();
+			return null;
+		} catch( ExecutionException e ){
+			return null;
+		}
+	}
+	
+	// Stop the worker threads once the plans already started are done.
+	public void shutdown(){
+		this.workers.shutdown();
+	}
+	
+	/**
+	 * A plan worked out ahead of time and what it was worked out from.
+	 */
+	static final class Plan {
+		final int version;		// Version of the board the snapshot was taken at.
+		final int x;			// East-west position the plan starts from.
+		final int y;			// North-south position the plan starts from.
+		final boolean food;		// True if the plan is to food, false if to scout.
+		final boolean took;		// True if food was found and taken off the target.
+		final boolean found;	// True if the search found food or an unknown square.
+		final int targetX;		// East-west position the plan ends at.
+		final int targetY;		// North-south position the plan ends at.
+		final Path path;		// The moves of the plan.
+		
+		Plan(int version, int x, int y, boolean food, boolean took, boolean found,
+				int targetX, int targetY){
+			this.version = version;
+			this.x = x;
+			this.y = y;
+			this.food = food;
+			this.took = took;
+			this.found = found;
+			this.targetX = targetX;
+			this.targetY = targetY;
+			this.path = new Path();
+		}
+	}
+}
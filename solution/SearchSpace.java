@@ -0,0 +1,246 @@
+/**
+ * Class: SearchSpace
+ * Author: Matthew Dailey
+ * 
+ * Working memory for the searches run on a Board. A search records, for every
+ * square it reaches, the distance from the start square and the direction of
+ * the predecessor square in parallel arrays indexed by square.
+ * 
+ * Searches happen several times a turn so the arrays are kept and reused
+ * rather than allocated each time. Instead of clearing them between searches
+ * every search gets a new generation number and a square only counts as
+ * reached if it was stamped with the current generation.
+ * 
+ * Breadth first searches use the queue. Searches where moves cost more than
+ * one turn or squares are taken in order of an estimate, like A*, use the
+ * open list instead, a binary heap of squares ordered by a priority and then
+ * a tie breaker, and mark squares closed once they have been expanded.
+ */
+
+import java.util.Arrays;
+
+public class SearchSpace {
+	static final int UNREACHED = Integer.MAX_VALUE / 2; // Distance of squares not reached.
+	static final byte NO_PRED = -1; // Predecessor of the start square.
+	
+	private int[] dist;		// Distance of each square from the start.
+	private byte[] pred;	// Ordinal of the direction to each square's predecessor.
+	private int[] stamp;	// Generation in which each square was last reached.
+	private int generation;	// Generation of the current search.
+	private int[] queue;	// Ring buffer of squares waiting to be expanded.
+	private int queueMask;	// Queue length - 1, the length is a power of two.
+	private int head;		// Index of the next square to expand.
+	private int tail;		// Index of the next free spot in the queue.
+	private int[] closed;	// Generation in which each square was last closed.
+	private byte[] flags;	// Bits a search can keep for each square it reaches.
+	private long[] keys;	// Open list heap of (priority << 32) | tie breaker.
+	private int[] open;		// Square of each entry of the open list heap.
+	private int opened;		// Number of entries in the open list.
+	
+	/**
+	 * SearchSpace
+	 * 
+	 * @param squares : number of square indices searches will use.
+	 */
+	public SearchSpace(int squares){
+		this.dist = new int[squares];
+		this.pred = new byte[squares];
+		this.stamp = new int[squares];
+		this.closed = new int[squares];
+		this.flags = new byte[squares];
+		this.keys = new long[Math.max(squares, 16)];
+		this.open = new int[Math.max(squares, 16)];
+		this.queue = new int[Integer.highestOneBit(Math.max(squares - 1, 1)) << 1];
+		this.queueMask = this.queue.length - 1;
+		this.generation = 0;
+	}
+	
+	/**
+	 * ensureCapacity
+	 * 
+	 * Make room for searches over square indices below the input, growing
+	 * the arrays if the board has grown since the last search.
+	 */
+	void ensureCapacity(int squares){
+		if( squares <= this.dist.length )
+			return;
+		int capacity = Math.max(squares, this.dist.length * 2);
+		this.dist = Arrays.copyOf(this.dist, capacity);
+		this.pred = Arrays.copyOf(this.pred, capacity);
+		this.stamp = Arrays.copyOf(this.stamp, capacity);
+		this.closed = Arrays.copyOf(this.closed, capacity);
+		this.flags = Arrays.copyOf(this.flags, capacity);
+		// Squares are opened again only when a shorter way is found, so the
+		// open list seldom holds more entries than there are squares.
+		if( this.keys.length < capacity ){
+			this.keys = new long[capacity];
+			this.open = new int[capacity];
+		}
+		this.queue = new int[Integer.highestOneBit(capacity - 1) << 1];
+		this.queueMask = this.queue.length - 1;
+	}
+	
+	/**
+	 * begin
+	 * 
+	 * Forget the previous search so a new one can start. Only the generation
+	 * changes, the arrays are left as they are.
+	 */
+	void begin(){
+		this.head = 0;
+		this.tail = 0;
+		this.opened = 0;
+		this.generation++;
+		if( this.generation == 0 ){
+			// The generation wrapped around so old stamps could look current.
+			Arrays.fill(this.stamp, 0);
+			Arrays.fill(this.closed, 0);
+			this.generation = 1;
+		}
+	}
+	
+	// Returns the generation of the current search, it changes with begin.
+	int generation(){
+		return this.generation;
+	}
+	
+	// Returns true if the square was reached by the current search.
+	boolean reached(int square){
+		return this.stamp[square] == this.generation;
+	}
+	
+	// Returns the distance to the square or UNREACHED.
+	int dist(int square){
+		return reached(square) ? this.dist[square] : UNREACHED;
+	}
+	
+	// Returns the direction ordinal of the square's predecessor or NO_PRED.
+	byte pred(int square){
+		return reached(square) ? this.pred[square] : NO_PRED;
+	}
+	
+	/**
+	 * reach
+	 * 
+	 * Record the distance and predecessor of a square and queue it to be
+	 * expanded.
+	 */
+	void reach(int square, int distance, byte predecessor){
+		this.stamp[square] = this.generation;
+		this.dist[square] = distance;
+		this.pred[square] = predecessor;
+		this.queue[this.tail++ & this.queueMask] = square;
+	}
+	
+	// Returns true if there are no more squares to expand.
+	boolean isEmpty(){
+		return this.head == this.tail;
+	}
+	
+	// Returns the next square to expand.
+	int poll(){
+		return this.queue[this.head++ & this.queueMask];
+	}
+	
+	/**
+	 * open
+	 * 
+	 * Record the distance and predecessor of a square, clear its flags and
+	 * add it to the open list. A square can be opened again with a shorter
+	 * distance, the old entry is left in the list and skipped once the square
+	 * is closed.
+	 * 
+	 * @param priority : entries with a lower priority are polled first.
+	 * @param tie : of entries with the same priority the lower is polled first.
+	 */
+	void open(int square, int distance, byte predecessor, int priority, int tie){
+		this.stamp[square] = this.generation;
+		this.dist[square] = distance;
+		this.pred[square] = predecessor;
+		this.flags[square] = 0;
+		push(square, priority, tie);
+	}
+	
+	/**
+	 * reopen
+	 * 
+	 * Put a square back in the open list keeping its distance, predecessor
+	 * and flags, so that it is expanded again.
+	 */
+	void reopen(int square, int priority, int tie){
+		this.closed[square] = this.generation - 1;
+		push(square, priority, tie);
+	}
+	
+	// Add an entry to the open list heap.
+	private void push(int square, int priority, int tie){
+		if( this.opened == this.keys.length ){
+			this.keys = Arrays.copyOf(this.keys, this.opened * 2);
+			this.open = Arrays.copyOf(this.open, this.opened * 2);
+		}
+		long key = ((long)priority << 32) | (tie & 0xFFFFFFFFL);
+		// Sift the new entry up from the bottom of the heap.
+		int i = this.opened++;
+		while( i > 0 ){
+			int parent = (i - 1) >>> 1;
+			if( this.keys[parent] <= key )
+				break;
+			this.keys[i] = this.keys[parent];
+			this.open[i] = this.open[parent];
+			i = parent;
+		}
+		this.keys[i] = key;
+		this.open[i] = square;
+	}
+	
+	// Returns true if there are no more entries in the open list.
+	boolean isOpenEmpty(){
+		return this.opened == 0;
+	}
+	
+	// Returns the square of the open list entry with the lowest priority and
+	// removes the entry.
+	int pollOpen(){
+		int square = this.open[0];
+		int last = --this.opened;
+		long key = this.keys[last];
+		int moved = this.open[last];
+		// Sift the last entry down from the top of the heap.
+		int i = 0;
+		while( true ){
+			int child = 2 * i + 1;
+			if( child >= last )
+				break;
+			if( child + 1 < last && this.keys[child + 1] < this.keys[child] )
+				child++;
+			if( key <= this.keys[child] )
+				break;
+			this.keys[i] = this.keys[child];
+			this.open[i] = this.open[child];
+			i = child;
+		}
+		this.keys[i] = key;
+		this.open[i] = moved;
+		return square;
+	}
+	
+	// Mark the square as expanded by the current search.
+	void close(int square){
+		this.closed[square] = this.generation;
+	}
+	
+	// Returns true if the square was expanded by the current search.
+	boolean isClosed(int square){
+		return this.closed[square] == this.generation;
+	}
+	
+	// Returns the flags of a square reached by the current search.
+	byte flags(int square){
+		return this.flags[square];
+	}
+	
+	// Set the flags of a square reached by the current search.
+	void setFlags(int square, byte flags){
+		this.flags[square] = flags;
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * Class: Simulator
+ * Author: Matthew Dailey
+ * 
+ * Plays many games of MyAnt at once on generated maps without the challenge
+ * harness, to load test the ants and see how changes affect the food they
+ * collect. Run it with the challenge jar on the classpath:
+ * 
+ * 	java Simulator [games] [ants] [turns] [size] [threads] [wall %] [food %] [seed]
+ * 
+ * Game i is played on the map generated from seed + i, so a run with the
+ * same arguments always plays the same maps. Games are spread over a pool
+ * of threads, one game per task, each game played by one thread start to
+ * finish. At the end it reports the food collected, per game and per turn,
+ * and the average time an ant took to choose its action.
+ * 
+ * With the ants.shared system property set to true the ants of each game
+ * share what they know through a Blackboard rather than their messages.
+ * 
+ * The ants.turns system property sets how the ants of a game are run:
+ * 
+ * 	- game: the default, the game's thread plays every ant.
+ * 	- forkjoin: each phase of a turn is split into batches of ants over the
+ * 	  common fork join pool.
+ * 	- threads: each ant runs on its own thread, virtual on Java 21 on, and
+ * 	  the ants wait for each other at a barrier between phases.
+ * 
+ * The ants.budget system property limits the squares each ant's searches
+ * may expand in a turn, see Board.setBudget, and the report says how often
+ * searches ran out.
+ * 
+ * The ants.lookahead system property is the number of threads of a
+ * PlanService the ants work out their next plans on while they walk, 0 by
+ * default for none, and the report says how many plans were ready in time.
+ * 
+ * With the ants.metrics system property set to true the Metrics are printed
+ * after the report, and written as CSV to the file the ants.metricsFile
+ * system property names if it is set.
+ * 
+ * For many ants in one game run a single game, e.g. with -Dants.turns=threads
+ * and a few hundred ants. Every ant reads the message of every other ant on
+ * its square each turn, and they all start at the hive, so the work of a
+ * turn grows with the square of the ants: on one core a turn of 400 ants
+ * takes around 60 ms and of 1000 ants around 240 ms.
+ */
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ants.*;
+
+public class Simulator {
+	private final int ants;			// Ants in each game.
+	private final int turns;		// Turns each game is played for.
+	private final int size;			// Width and height of each map.
+	private final double walls;		// Chance of a square being a wall.
+	private final double food;		// Chance of an open square having food.
+	private final long seed;		// Seed of the first game's map.
+	private final boolean shared;	// True if the ants of a game share a blackboard.
+	private final String mode;		// How the ants of a game are run, see above.
+	private final ThreadFactory threads;	// Threads of ants in threads mode.
+	private final int budget;		// Squares an ant may search a turn, 0 for no limit.
+	private final PlanService planner; // Where ants plan ahead, or null.
+	
+	public Simulator(int ants, int turns, int size, double walls, double food, long seed){
+		this.ants = ants;
+		this.turns = turns;
+		this.size = size;
+		this.walls = walls;
+		this.food = food;
+		this.seed = seed;
+		this.shared = Boolean.getBoolean("ants.shared");
+		this.mode = System.getProperty("ants.turns", "game");
+		this.threads = this.mode.equals("threads") ? Game.virtualThreads() : null;
+		this.budget = Integer.getInteger("ants.budget", 0);
+		int lookahead = Integer.getInteger("ants.lookahead", 0);
+		this.planner = lookahead > 0 ? new PlanService(lookahead) : null;
+		if( !this.mode.equals("game") && !this.mode.equals("forkjoin") && !this.mode.equals("threads") )
+			throw new IllegalArgumentException("ants.turns must be game, forkjoin or threads: " + this.mode);
+	}
+	
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int ants = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int turns = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int size = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+		int threads = args.length > 4 ? Integer.parseInt(args[4])
+				: Runtime.getRuntime().availableProcessors();
+		double walls = args.length > 5 ? Double.parseDouble(args[5]) / 100 : 0.2;
+		double food = args.length > 6 ? Double.parseDouble(args[6]) / 100 : 0.05;
+		long seed = args.length > 7 ? Long.parseLong(args[7]) : 42;
+		
+		Simulator sim = new Simulator(ants, turns, size, walls, food, seed);
+		long start = System.nanoTime();
+		Game[] played = sim.run(games, threads);
+		long wall = System.nanoTime() - start;
+		sim.report(played, wall);
+		if( Metrics.ENABLED ){
+			Metrics.dump(new OutputStreamWriter(System.out));
+			if( System.getProperty("ants.metricsFile") != null )
+				Metrics.writeCsv(System.getProperty("ants.metricsFile"));
+		}
+	}
+	
+	/**
+	 * run
+	 * 
+	 * Play the games on a pool of threads and wait for all of them.
+	 * 
+	 * @return the finished games, in game order.
+	 */
+	public Game[] run(int games, int threads) throws InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Game>> futures = new ArrayList<Future<Game>>(games);
+			for( int i = 0; i < games; i++ ){
+				final int game = i;
+				futures.add(pool.submit(new Callable<Game>(){
+					public Game call(){
+						return play(game);
+					}
+				}));
+			}
+			Game[] played = new Game[games];
+			for( int i = 0; i < games; i++ )
+				played[i] = futures.get(i).get();
+			return played;
+		} finally {
+			pool.shutdown();
+			if( this.planner != null )
+				this.planner.shutdown();
+		}
+	}
+	
+	// Play one game from start to finish.
+	public Game play(int game){
+		GameMap world = new GameMap(this.size, this.size, this.walls, this.food, this.seed + game);
+		Blackboard blackboard = this.shared ? Blackboard.forMap(this.size, this.size) : null;
+		Ant[] players = new Ant[this.ants];
+		for( int i = 0; i < players.length; i++ ){
+			MyAnt ant = new MyAnt(blackboard);
+			ant.setBudget(this.budget);
+			ant.setPlanService(this.planner);
+			players[i] = ant;
+		}
+		Game g = new Game(world, players);
+		if( this.mode.equals("threads") ){
+			try {
+				g.play(this.turns, this.threads);
+			} catch( InterruptedException e ){
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted playing game " + game, e);
+			}
+		} else if( this.mode.equals("forkjoin") ){
+			for( int t = 0; t < this.turns; t++ )
+				g.turn(ForkJoinPool.commonPool());
+		} else {
+			for( int t = 0; t < this.turns; t++ )
+				g.turn();
+		}
+		return g;
+	}
+	
+	// Print the totals over all the games.
+	private void report(Game[] played, long wallNanos){
+		long collected = 0;
+		long decideNanos = 0;
+		long decisions = 0;
+		long budgetHits = 0;
+		long plansNeeded = 0;
+		long plansReady = 0;
+		long best = 0;
+		long worst = Long.MAX_VALUE;
+		for( Game g : played ){
+			collected += g.collected();
+			decideNanos += g.decideNanos();
+			decisions += (long)g.turns() * g.size();
+			best = Math.max(best, g.collected());
+			worst = Math.min(worst, g.collected());
+			for( int i = 0; i < g.size(); i++ ){
+				MyAnt ant = (MyAnt)g.ant(i);
+				budgetHits += ant.budgetHits();
+				plansNeeded += ant.plansNeeded();
+				plansReady += ant.plansReady();
+			}
+		}
+		int games = played.length;
+		System.out.println(String.format(Locale.ROOT,
+				"%d games of %d ants for %d turns on %dx%d maps in %.2f s, %s turns%s",
+				games, this.ants, this.turns, this.size, this.size, wallNanos / 1e9, this.mode,
+				this.shared ? " sharing a blackboard" : ""));
+		System.out.println(String.format(Locale.ROOT,
+				"food collected: %d total, %.2f per game (min %d, max %d), %.4f per turn",
+				collected, (double)collected / games, games == 0 ? 0 : worst, best,
+				(double)collected / ((long)games * this.turns)));
+		System.out.println(String.format(Locale.ROOT,
+				"getAction: %.1f ns per call over %d calls",
+				(double)decideNanos / decisions, decisions));
+		if( this.budget != 0 )
+			System.out.println(String.format(Locale.ROOT,
+					"search budget of %d squares a turn ran out %d times, in %.2f%% of calls",
+					this.budget, budgetHits, 100.0 * budgetHits / decisions));
+		if( this.planner != null )
+			System.out.println(String.format(Locale.ROOT,
+					"plans worked out ahead: %d of %d needed, %.2f%%",
+					plansReady, plansNeeded, 100.0 * plansReady / Math.max(1, plansNeeded)));
+	}
+}
@@ -2,10 +2,11 @@
  * Class: Vertex
  * Author: Matthew Dailey
  * 
- * This class is used to represent a graph of the game map. The graph is used
- * to compute distances on the map and run Dijkstra's shortest path algorithm.
+ * This class is used to represent a graph of the game map. The board runs its
+ * searches on a SearchSpace and only builds vertices as a view of the result
+ * for callers of Board.computeDistances that want one.
  * 
- * It is comparable to allow sorting based on distance from the start node of 
+ * It is comparable to allow sorting based on distance from the start node of
  * Dijkstra's. Distance is set by the algorithm using the vertex and initialized
  * to infinity.
  */
@@ -0,0 +1,104 @@
+/**
+ * Class: WireFormat
+ * Author: Matthew Dailey
+ * 
+ * Helpers for the compact binary format ants use to send their boards to
+ * each other. A message is laid out as:
+ * 
+ * 	- MAGIC and VERSION bytes.
+ * 	- the version of the sender's board and the version the message is a
+ * 	  delta from as varints, 0 if it is the whole board.
+ * 	- the sender's position, target and known bounds as zigzag varints.
+ * 	- the number of chunks, then for each chunk its chunk coordinate as
+ * 	  zigzag varints and a long with a bit set for each row with known squares.
+ * 	- for each of those rows, the first known column and the number of columns
+ * 	  up to the last known one, then the known, wall and food bits of that span
+ * 	  packed into bytes, then the amount of food on each square with food as
+ * 	  a varint.
+ * 	- after the board, the sending ant's id as a long and the versions of
+ * 	  the other ants' boards it has merged, see Peers.
+ * 	- a byte for whether the sender is free, waiting at the hive for the
+ * 	  waggler to send it to food or the waggler, then the number of orders
+ * 	  and for each the id of an ant and the position of the food it is sent
+ * 	  to as zigzag varints, then the number of foods offered and the position
+ * 	  of each, see Orders.
+ * 
+ * Rows of explored area are short runs of bits so a row usually packs into a
+ * handful of bytes, where the old Gson messages spelled out every square as
+ * decimal text.
+ */
+
+import java.nio.ByteBuffer;
+
+public class WireFormat {
+	static final byte MAGIC = 0x41; // First byte of every board message.
+	static final byte VERSION = 3; // Version of the layout above.
+	
+	// Most bytes a varint of an int can take.
+	static final int MAX_VARINT = 5;
+	
+	/**
+	 * checkHeader
+	 * 
+	 * Read the header of a message and make sure it is a board in a version
+	 * this code understands.
+	 */
+	static void checkHeader(ByteBuffer in){
+		if( in.get() != MAGIC )
+			throw new IllegalArgumentException("Message is not a board");
+		byte version = in.get();
+		if( version != VERSION )
+			throw new IllegalArgumentException("Unsupported board version " + version);
+	}
+	
+	// Write the header of a message.
+	static void putHeader(ByteBuffer out){
+		out.put(MAGIC);
+		out.put(VERSION);
+	}
+	
+	// Write a non-negative int seven bits at a time, low bits first.
+	static void putVarint(ByteBuffer out, int value){
+		while( (value & ~0x7F) != 0 ){
+			out.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte)value);
+	}
+	
+	// Read an int written by putVarint.
+	static int getVarint(ByteBuffer in){
+		int value = 0;
+		for( int shift = 0; ; shift += 7 ){
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if( b >= 0 )
+				return value;
+		}
+	}
+	
+	// Write a signed int so that small negative values stay small.
+	static void putInt(ByteBuffer out, int value){
+		putVarint(out, (value << 1) ^ (value >> 31));
+	}
+	
+	// Read an int written by putInt.
+	static int getInt(ByteBuffer in){
+		int value = getVarint(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	// Write the low count bits of the input, eight to a byte, low bits first.
+	static void putBits(ByteBuffer out, long bits, int count){
+		for( int shift = 0; shift < count; shift += 8 )
+			out.put((byte)(bits >>> shift));
+	}
+	
+	// Read count bits written by putBits.
+	static long getBits(ByteBuffer in, int count){
+		long bits = 0;
+		for( int shift = 0; shift < count; shift += 8 )
+			bits |= (in.get() & 0xFFL) << shift;
+		return count == 64 ? bits : bits & ((1L << count) - 1);
+	}
+}
@@ -0,0 +1,35 @@
+package ants;
+
+/**
+ * Stand-in for the challenge's Action. Like the real one, move returns a
+ * new action every call, so callers that want no allocation keep their own.
+ * Actions are equal if they do the same thing.
+ */
+public final class Action {
+	public static final Action HALT = new Action("HALT");
+	public static final Action GATHER = new Action("GATHER");
+	public static final Action DROP_OFF = new Action("DROP_OFF");
+	
+	private final String name;	// What the action does, the direction for a move.
+	
+	private Action(String name){
+		this.name = name;
+	}
+	
+	// Returns an action moving one square in the direction.
+	public static Action move(Direction direction){
+		return new Action(direction.name());
+	}
+	
+	public boolean equals(Object other){
+		return other instanceof Action && ((Action)other).name.equals(this.name);
+	}
+	
+	public int hashCode(){
+		return this.name.hashCode();
+	}
+	
+	public String toString(){
+		return this.name;
+	}
+}
@@ -0,0 +1,14 @@
+package ants;
+
+/**
+ * Stand-in for the challenge's Ant. Every turn each ant is asked for a
+ * message, hears the messages of the ants on its square, then chooses an
+ * action.
+ */
+public interface Ant {
+	Action getAction(Surroundings surroundings);
+	
+	byte[] send();
+	
+	void receive(byte[] data);
+}
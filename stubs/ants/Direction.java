@@ -0,0 +1,9 @@
+package ants;
+
+/**
+ * Stand-in for the challenge's Direction, so the solution builds and its
+ * tests and benchmarks run without the challenge jar. See pom.xml.
+ */
+public enum Direction {
+	NORTH, EAST, SOUTH, WEST
+}
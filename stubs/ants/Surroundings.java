@@ -0,0 +1,12 @@
+package ants;
+
+/**
+ * Stand-in for the challenge's Surroundings, the squares an ant can see.
+ */
+public interface Surroundings {
+	// Returns the square the ant is on.
+	Tile getCurrentTile();
+	
+	// Returns the square next to the ant in the direction.
+	Tile getTile(Direction direction);
+}
@@ -0,0 +1,15 @@
+package ants;
+
+/**
+ * Stand-in for the challenge's Tile, one square as an ant sees it.
+ */
+public interface Tile {
+	// Returns the amount of food on the square.
+	int getAmountOfFood();
+	
+	// Returns the number of ants on the square.
+	int getNumAnts();
+	
+	// Returns true if ants can walk onto the square.
+	boolean isTravelable();
+}
@@ -0,0 +1,74 @@
+/**
+ * Class: MyAntTest
+ * Author: Matthew Dailey
+ * 
+ * Tests of MyAnt played on a generated map.
+ * 
+ * getAction is called by every ant every turn, so once an ant's board and
+ * search buffers have grown to the map it must not allocate at all. The
+ * bytes the test thread allocates are read from the ThreadMXBean around
+ * the decide phase of each turn, which only calls getAction.
+ */
+
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import ants.*;
+
+public class MyAntTest {
+	private static final int SIZE = 32;		// Width and height of the map.
+	private static final int ANTS = 8;		// Ants playing.
+	private static final int WARMUP = 500;	// Turns played before measuring.
+	private static final int TURNS = 250;	// Turns in a window measured.
+	private static final int WINDOWS = 8;	// Windows measured after the warm up.
+	
+	/**
+	 * Food is scarce so gatherers keep running out and scouting again. By the
+	 * end of the warm up the ants have seen the whole map, so their boards
+	 * and search buffers are as big as they get, and every window of turns
+	 * after it must allocate nothing. The ants must also still be gathering
+	 * in the first window, so the windows measure more than idle ants.
+	 */
+	@Test
+	public void getActionAllocatesNothingOnceWarm(){
+		ThreadMXBean threads = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long thread = Thread.currentThread().getId();
+		
+		Ant[] ants = new Ant[ANTS];
+		for( int i = 0; i < ANTS; i++ )
+			ants[i] = new MyAnt();
+		Game game = new Game(new GameMap(SIZE, SIZE, 0.3, 0.05, 1), ants);
+		for( int t = 0; t < WARMUP; t++ )
+			game.turn();
+		
+		long collected = game.collected();
+		for( int w = 0; w < WINDOWS; w++ ){
+			long allocated = 0;
+			for( int t = 0; t < TURNS; t++ ){
+				for( int i = 0; i < ANTS; i++ )
+					game.send(i);
+				game.group();
+				for( int i = 0; i < ANTS; i++ )
+					game.exchange(i);
+				long before = threads.getThreadAllocatedBytes(thread);
+				for( int i = 0; i < ANTS; i++ )
+					game.decide(i);
+				allocated += threads.getThreadAllocatedBytes(thread) - before;
+				game.resolve();
+			}
+			if( allocated != 0 )
+				fail("getAction allocated " + allocated + " bytes in turns " + (WARMUP + w * TURNS)
+						+ " to " + (WARMUP + (w + 1) * TURNS));
+			if( w == 0 && game.collected() == collected )
+				fail("no food was gathered in the first " + TURNS + " turns measured");
+		}
+	}
+}